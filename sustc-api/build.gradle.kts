@@ -13,11 +13,17 @@ plugins {
 dependencies {
     implementation("org.springframework.boot:spring-boot-starter-jdbc")
     compileOnly("com.opencsv:opencsv:5.8")
+    compileOnly("org.postgresql:postgresql")
+    testImplementation("org.springframework.boot:spring-boot-starter-test")
 
     // You may add any utility library you want to use, such as guava.
     // ORM libraries are prohibited in this project.
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.withType<BootRun> {
     enabled = false
 }
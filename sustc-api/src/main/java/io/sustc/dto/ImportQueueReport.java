@@ -0,0 +1,47 @@
+package io.sustc.dto;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * How one queue between the stages of a pipelined import filled up
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportQueueReport implements Serializable {
+
+    /**
+     * The name of the queue, shared by the queues of every pipeline of one import.
+     */
+    private String queue;
+
+    private int capacity;
+
+    /**
+     * The number of units that went through the queue.
+     */
+    private long units;
+
+    /**
+     * The mean number of queued units right after a put.
+     */
+    private double meanDepth;
+
+    private long maxDepth;
+
+    /**
+     * Time producers spent blocked on a full queue, summed over the producing threads.
+     */
+    private long putStallNanos;
+
+    /**
+     * Time consumers spent blocked on an empty queue, summed over the consuming threads.
+     */
+    private long takeStallNanos;
+}
@@ -0,0 +1,29 @@
+package io.sustc.dto;
+
+import java.io.Serializable;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The figures of one import or snapshot restore
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportReport implements Serializable {
+
+    /**
+     * One report per loaded table, parents before the tables referencing them.
+     */
+    private List<ImportTableReport> tables;
+
+    /**
+     * The queues of the import pipeline, empty unless the import ran pipelined.
+     */
+    private List<ImportQueueReport> queues;
+}
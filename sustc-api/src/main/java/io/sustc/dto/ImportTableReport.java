@@ -0,0 +1,92 @@
+package io.sustc.dto;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * What loading one table achieved during an import or snapshot restore
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportTableReport implements Serializable {
+
+    /**
+     * The name of the table.
+     */
+    private String table;
+
+    /**
+     * The name of the sink that shipped the rows to the database.
+     */
+    private String sink;
+
+    private long rows;
+
+    /**
+     * Rows dropped by validation before loading.
+     */
+    private long removedRows;
+
+    /**
+     * Bytes shipped to the database, {@code 0} for sinks that do not count them.
+     */
+    private long bytes;
+
+    /**
+     * Wall time from the start of the first slice of the table to the end of its last one.
+     */
+    private long elapsedNanos;
+
+    private double rowsPerSecond;
+
+    private long flushCount;
+
+    private long flushP50Nanos;
+
+    private long flushP99Nanos;
+
+    private long flushMaxNanos;
+
+    /**
+     * Time spent waiting for a pooled connection.
+     */
+    private long connectionWaitNanos;
+
+    /**
+     * Heap allocated by the threads writing the rows, per row.
+     */
+    private double allocatedBytesPerRow;
+
+    /**
+     * The JDBC batch size the table ended with, {@code 0} for sinks that do not batch statements.
+     */
+    private int batchSize;
+
+    /**
+     * Encoded bytes that went through a spill file instead of the heap.
+     */
+    private long spilledBytes;
+
+    /**
+     * Rows that were not in the table yet, when appending to a non-empty database.
+     */
+    private long mergedRows;
+
+    private long mergeNanos;
+
+    /**
+     * Time spent rebuilding indexes and restoring constraints after loading.
+     */
+    private long maintenanceNanos;
+
+    /**
+     * When the table was loaded and maintained, since the start of the import; {@code 0} without maintenance.
+     */
+    private long readyNanos;
+}
@@ -0,0 +1,15 @@
+package io.sustc.service;
+
+import io.sustc.dto.ImportReport;
+
+public interface ImportReportService {
+
+    /**
+     * Reports what the last {@link DatabaseService#importData} achieved.
+     * <p>
+     * Only implemented by importers that measure themselves, so callers should look it up as an optional bean.
+     *
+     * @return the report of the last import, {@code null} if nothing was imported since startup
+     */
+    ImportReport getLastImportReport();
+}
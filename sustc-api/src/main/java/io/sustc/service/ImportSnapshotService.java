@@ -0,0 +1,38 @@
+package io.sustc.service;
+
+import io.sustc.dto.ImportReport;
+
+import java.nio.file.Path;
+
+public interface ImportSnapshotService {
+
+    /**
+     * The version of the snapshot format, to tell snapshots of older builds apart.
+     *
+     * @return the version written by {@link #save} and read by {@link #restore}
+     */
+    int getFormatVersion();
+
+    /**
+     * Checks for a complete snapshot of the current format.
+     *
+     * @param dir the snapshot directory
+     * @return whether {@link #restore} can load {@code dir}
+     */
+    boolean exists(Path dir);
+
+    /**
+     * Saves every imported table to {@code dir}, replacing what was there.
+     *
+     * @param dir the snapshot directory
+     */
+    void save(Path dir);
+
+    /**
+     * Loads a snapshot into an empty database, in place of {@link DatabaseService#importData}.
+     *
+     * @param dir the snapshot directory
+     * @return what loading each table achieved
+     */
+    ImportReport restore(Path dir);
+}
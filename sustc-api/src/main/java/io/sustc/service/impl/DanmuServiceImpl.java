@@ -2,12 +2,15 @@ package io.sustc.service.impl;
 
 import io.sustc.dto.AuthInfo;
 import io.sustc.service.DanmuService;
+import io.sustc.service.impl.importer.IdAllocator;
+import io.sustc.service.impl.importer.ImportTable;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,6 +20,12 @@ public class DanmuServiceImpl implements DanmuService {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private WarmIndexes warmIndexes;
+
     @Override
     public long sendDanmu(AuthInfo auth, String bv, String content, float time) {
         if (!validAuth(auth)) return -1;
@@ -77,18 +86,22 @@ public class DanmuServiceImpl implements DanmuService {
         if (numberOfWatch != 1) return -1;
 
 
-        String sqlOfMaxMid = " select max(danmu_id) as max from danmu";
-        long MaxID = 0L;
+        long danmuId = idAllocator.next(IdAllocator.Sequence.DANMU_ID);
+        // the columns and types of the imported danmus, see ImportTable.DANMU
+        String sqlOfInsert = ImportTable.DANMU.insertSql(ImportTable.DANMU.getTableName());
         try (Connection conn = dataSource.getConnection();
-             Statement statement = conn.createStatement();
-             ResultSet resultSet = statement.executeQuery(sqlOfMaxMid)) {
-            while (resultSet.next()) {
-                MaxID = resultSet.getInt("max");
-            }
+             PreparedStatement stmt = conn.prepareStatement(sqlOfInsert)) {
+            stmt.setString(1, bv);
+            stmt.setLong(2, auth.getMid());
+            stmt.setFloat(3, time);
+            stmt.setString(4, content);
+            stmt.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.setLong(6, danmuId);
+            stmt.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return MaxID + 1;
+        return danmuId;
     }
 
     @Override
@@ -176,6 +189,8 @@ public class DanmuServiceImpl implements DanmuService {
     }
 
     public boolean validAuth(AuthInfo auth) {
+        Boolean warm = warmIndexes.authenticate(auth);
+        if (warm != null) return warm;
         // auth is invalid
         String sqlOfWechatAndQQ = "select count(*) as count from users where Wechat= ? or QQ=?";
         int numberOfMid = 0;
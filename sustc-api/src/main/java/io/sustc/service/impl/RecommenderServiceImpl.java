@@ -19,6 +19,9 @@ public class RecommenderServiceImpl implements RecommenderService {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private WarmIndexes warmIndexes;
+
     {
         String sqlFunctionRecommend_Videos_For_User = """
                 CREATE OR REPLACE FUNCTION Recommend_Videos_For_User(current_mid BIGINT)
@@ -199,137 +202,36 @@ public class RecommenderServiceImpl implements RecommenderService {
     @Override
     public List<String> generalRecommendations(int pageSize, int pageNum) {
         if (pageNum <= 0 || pageSize <= 0) return null;
-        //BvList
-        String sqlOfBvList = "select user_mid from video";
-        List<String> listOfBv = new ArrayList<>();
+        // danmu, view and finish figures come precomputed from video_stats
+        String sql = """
+                SELECT v.bv
+                FROM video v
+                         LEFT JOIN video_stats s ON s.bv = v.bv
+                         LEFT JOIN (SELECT video_bv, count(*) AS n FROM thumbs_up GROUP BY video_bv) l ON l.video_bv = v.bv
+                         LEFT JOIN (SELECT video_bv, count(*) AS n FROM coin GROUP BY video_bv) c ON c.video_bv = v.bv
+                         LEFT JOIN (SELECT video_bv, count(*) AS n FROM favorite GROUP BY video_bv) f ON f.video_bv = v.bv
+                ORDER BY CASE
+                             WHEN coalesce(s.view_count, 0) = 0 THEN 0
+                             ELSE least(1, coalesce(l.n, 0)::float8 / s.view_count)
+                                 + least(1, coalesce(c.n, 0)::float8 / s.view_count)
+                                 + least(1, coalesce(f.n, 0)::float8 / s.view_count)
+                                 + s.danmu_count::float8 / s.view_count
+                                 + s.view_time_sum / s.view_count / v.duration
+                             END DESC, v.bv
+                LIMIT ? OFFSET ?
+                """;
+        List<String> result = new ArrayList<>();
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sqlOfBvList)) {
-            ResultSet resultSet = stmt.executeQuery(sqlOfBvList);
-            while (resultSet.next()) {
-                listOfBv.add(resultSet.getString("user_mid"));
-            }
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-
-        List<Node> temp = new ArrayList<>();
-        for (int i = 0; i < listOfBv.size(); i++) {
-            double sum = 0;
-            //like
-            String sqlOfLike = """
-                    select count(*) as count from thumbs_up where video_bv = ?
-                    """;
-            int countOfLike = 0;
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sqlOfLike)) {
-                stmt.setString(1, listOfBv.get(i));
-                ResultSet resultSet = stmt.executeQuery();
-                while (resultSet.next()) {
-                    countOfLike = resultSet.getInt("count");
-                }
-                stmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-
-            //coin
-            String sqlOfCoin = """
-                    select count(*) as count from coin where video_bv = ?
-                    """;
-            int countOfCoin = 0;
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sqlOfCoin)) {
-                stmt.setString(1, listOfBv.get(i));
-                ResultSet resultSet = stmt.executeQuery();
-                while (resultSet.next()) {
-                    countOfCoin = resultSet.getInt("count");
-                }
-                stmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-
-
-            //fav
-            String sqlOfFav = """
-                    select count(*) as count from favorite where video_bv = ?
-                    """;
-            int countOfFav = 0;
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sqlOfFav)) {
-                stmt.setString(1, listOfBv.get(i));
-                ResultSet resultSet = stmt.executeQuery();
-                while (resultSet.next()) {
-                    countOfFav = resultSet.getInt("count");
-                }
-                stmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-
-            //danmu
-            String sqlOfDanmu = """
-                    select count(*) as count from favorite where bv = ?
-                    """;
-            int countOfDanmu = 0;
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sqlOfDanmu)) {
-                stmt.setString(1, listOfBv.get(i));
-                ResultSet resultSet = stmt.executeQuery();
-                while (resultSet.next()) {
-                    countOfDanmu = resultSet.getInt("count");
-                }
-                stmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-
-            //finish
-            String sqlOfFinish = """
-                    select count(*) count from view left join video on view.video_BV = video.BV where last_watch_time_duration=duration and bv=?
-                    """;
-            int countOfFinish = 0;
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sqlOfFinish)) {
-                stmt.setString(1, listOfBv.get(i));
-                ResultSet resultSet = stmt.executeQuery();
-                while (resultSet.next()) {
-                    countOfFinish = resultSet.getInt("count");
-                }
-                stmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
-
-            //total
-            String sqlOfView = """
-                    select count(*) as count from view where video_bv = ?
-                    """;
-            int countOfView = 0;
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement stmt = conn.prepareStatement(sqlOfView)) {
-                stmt.setString(1, listOfBv.get(i));
-                ResultSet resultSet = stmt.executeQuery();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, pageSize);
+            stmt.setLong(2, (long) (pageNum - 1) * pageSize);
+            try (ResultSet resultSet = stmt.executeQuery()) {
                 while (resultSet.next()) {
-                    countOfView = resultSet.getInt("count");
+                    result.add(resultSet.getString("bv"));
                 }
-                stmt.executeUpdate();
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
             }
-            sum += countOfLike * 1.0 / countOfView;
-            sum += countOfCoin * 1.0 / countOfView;
-            sum += countOfFav * 1.0 / countOfView;
-            sum += countOfDanmu * 1.0 / countOfView;
-            sum += countOfFinish * 1.0 / countOfView;
-            temp.add(new Node(listOfBv.get(i), sum));
-        }
-
-        Collections.sort(temp);
-        List<String> result = new ArrayList<>();
-        for (int i = 0; i < Math.min(temp.size(), pageNum * pageSize); i++) {
-            result.add(temp.get(i).bv);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
         return result;
     }
@@ -394,22 +296,9 @@ public class RecommenderServiceImpl implements RecommenderService {
         }
     }
 
-    private static class Node implements Comparable<Node> {
-        String bv;
-        double sum;
-
-        public Node(String bv, double sum) {
-            this.bv = bv;
-            this.sum = sum;
-        }
-
-        @Override
-        public int compareTo(Node other) {
-            return Double.compare(other.sum, this.sum);
-        }
-    }
-
     public boolean validAuth(AuthInfo auth) {
+        Boolean warm = warmIndexes.authenticate(auth);
+        if (warm != null) return warm;
         // auth is invalid
         String sqlOfWechatAndQQ = "select count(*) as count from users where Wechat= ? or QQ=?";
         int numberOfMid = 0;
@@ -3,7 +3,10 @@ package io.sustc.service.impl;
 import io.sustc.dto.AuthInfo;
 import io.sustc.dto.RegisterUserReq;
 import io.sustc.dto.UserInfoResp;
+import io.sustc.dto.UserRecord;
 import io.sustc.service.UserService;
+import io.sustc.service.impl.importer.IdAllocator;
+import io.sustc.service.impl.importer.ImportTable;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -11,6 +14,8 @@ import org.springframework.stereotype.Service;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 @Service
@@ -19,6 +24,12 @@ public class UserServiceImpl implements UserService {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private WarmIndexes warmIndexes;
+
     @Override
     public long register(RegisterUserReq req) {
         if (req.getPassword() == null || req.getName() == null || req.getSex() == null) {
@@ -51,6 +62,10 @@ public class UserServiceImpl implements UserService {
             return -1;
         }
 
+        if (warmIndexes.midByQq(req.getQq()) != null || warmIndexes.midByWechat(req.getWechat()) != null) {
+            return -1;
+        }
+
         if (req.getQq() != null) {
             String sqlOfQQ = "select count(*) as count from users where QQ= " + req.getQq() + ";";
             int numberOfQQ = 0;
@@ -82,18 +97,39 @@ public class UserServiceImpl implements UserService {
             if (numberOfWechat != 0) return -1;
         }
 
-        String sqlOfMaxMid = " select max(mid) as max from users";
-        long MaxMid = 0L;
+        long mid = idAllocator.next(IdAllocator.Sequence.USER_MID);
+        // the columns and types of the imported users, see ImportTable.USERS
+        String sqlOfInsert = ImportTable.USERS.insertSql(ImportTable.USERS.getTableName());
         try (Connection conn = dataSource.getConnection();
-             Statement statement = conn.createStatement();
-             ResultSet resultSet = statement.executeQuery(sqlOfMaxMid)) {
-            while (resultSet.next()) {
-                MaxMid = resultSet.getInt("max");
-            }
+             PreparedStatement stmt = conn.prepareStatement(sqlOfInsert)) {
+            stmt.setLong(1, mid);
+            stmt.setString(2, req.getName());
+            stmt.setString(3, sexOf(req.getSex()));
+            stmt.setString(4, req.getBirthday());
+            // level and coin start at 0
+            stmt.setShort(5, (short) 0);
+            stmt.setInt(6, 0);
+            stmt.setString(7, req.getSign());
+            stmt.setString(8, UserRecord.Identity.USER.name());
+            stmt.setString(9, req.getPassword());
+            stmt.setString(10, req.getQq());
+            stmt.setString(11, req.getWechat());
+            stmt.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return MaxMid+1;
+        return mid;
+    }
+
+    /**
+     * The {@code sex} as the imported user records spell it.
+     */
+    private static String sexOf(RegisterUserReq.Gender gender) {
+        return switch (gender) {
+            case MALE -> "\u7537";
+            case FEMALE -> "\u5973";
+            case UNKNOWN -> "\u4fdd\u5bc6";
+        };
     }
 
 
@@ -138,6 +174,7 @@ public class UserServiceImpl implements UserService {
         if (identityOfAuth.equals("superuser") && (!identity.equals("user") || mid != auth.getMid())) {
             return false;
         }
+        warmIndexes.evictUser(mid);
         return true;
     }
 
@@ -147,6 +184,11 @@ public class UserServiceImpl implements UserService {
         // auth is invalid
         if (validAuth(auth)) return false;
 
+        long[] following = warmIndexes.following(auth.getMid());
+        if (following != null) {
+            return Arrays.stream(following).anyMatch(mid -> mid == followeeMid);
+        }
+
         String sqlOfNumberOfMid = "select count(*) as count from follow where follower_mid = ? and followee_mid = ?";
         int numberOfBoth = 0;
         try (Connection conn = dataSource.getConnection();
@@ -210,26 +252,31 @@ public class UserServiceImpl implements UserService {
         }
 
         //following array
-        String sqlOfFollowing = """
-                select following_mid count from follow where follower_mid='?'
-                """;
-        ArrayList<Long> arrayListOfFollowing = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sqlOfFollowing)) {
-            stmt.setLong(1, mid);
-            ResultSet resultSet = stmt.executeQuery();
-            while (resultSet.next()) {
-                arrayListOfFollowing.add(resultSet.getLong("count"));
+        long[] arrayOfFollowing = warmIndexes.following(mid);
+        if (arrayOfFollowing != null) {
+            arrayOfFollowing = arrayOfFollowing.clone();
+        } else {
+            String sqlOfFollowing = """
+                    select following_mid count from follow where follower_mid='?'
+                    """;
+            ArrayList<Long> arrayListOfFollowing = new ArrayList<>();
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sqlOfFollowing)) {
+                stmt.setLong(1, mid);
+                ResultSet resultSet = stmt.executeQuery();
+                while (resultSet.next()) {
+                    arrayListOfFollowing.add(resultSet.getLong("count"));
+                }
+                resultSet.close();
+                stmt.close();
+                stmt.executeUpdate();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            arrayOfFollowing = new long[arrayListOfFollowing.size()];
+            for (int i = 0; i < arrayListOfFollowing.size(); i++) {
+                arrayOfFollowing[i] = arrayListOfFollowing.get(i);
             }
-            resultSet.close();
-            stmt.close();
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-        long[] arrayOfFollowing = new long[arrayListOfFollowing.size()];
-        for (int i = 0; i < arrayListOfFollowing.size(); i++) {
-            arrayOfFollowing[i] = arrayListOfFollowing.get(i);
         }
         //follower
         String sqlOfFollower = """
@@ -398,6 +445,8 @@ public class UserServiceImpl implements UserService {
     }
 
     public boolean validAuth(AuthInfo auth) {
+        Boolean warm = warmIndexes.authenticate(auth);
+        if (warm != null) return !warm;
         // auth is invalid
         String sqlOfWechatAndQQ = "select count(*) as count from users where Wechat= ? or QQ=?";
         int numberOfMid = 0;
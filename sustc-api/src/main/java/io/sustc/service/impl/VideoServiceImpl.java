@@ -2,6 +2,7 @@ package io.sustc.service.impl;
 
 import io.sustc.dto.AuthInfo;
 import io.sustc.dto.PostVideoReq;
+import io.sustc.dto.UserRecord;
 import io.sustc.dto.VideoRecord;
 import io.sustc.service.UserService;
 import io.sustc.service.VideoService;
@@ -19,6 +20,8 @@ import java.util.*;
 public class VideoServiceImpl implements VideoService {
     @Autowired
     private DataSource dataSource;
+    @Autowired
+    private WarmIndexes warmIndexes;
     private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
 
     /**
@@ -92,6 +95,8 @@ public class VideoServiceImpl implements VideoService {
     }
 
     private boolean isValidAuth(AuthInfo auth) {
+        Boolean warm = warmIndexes.authenticate(auth);
+        if (warm != null) return warm;
         // both qq and Wechat are non-empty while they do not correspond to same user
         if (auth.getQq().isEmpty() && auth.getWechat().isEmpty()) return false;
         // mid is invalid while qq and wechat are both invalid (empty or not found)
@@ -353,6 +358,7 @@ public class VideoServiceImpl implements VideoService {
             likeStmt.setString(1, bv);
             videoStmt.setString(1, bv);
             int rowsAffected = videoStmt.executeUpdate();
+            warmIndexes.evictVideo(bv);
             return rowsAffected > 0;
         } catch (SQLException e) {
             throw new RuntimeException(e);
@@ -378,6 +384,7 @@ public class VideoServiceImpl implements VideoService {
     }
 
     private boolean findVideo(String bv) {
+        if (warmIndexes.video(bv) != null) return true;
         boolean find = false;
         String query = "SELECT * FROM video WHERE bv = ?";
         try (Connection conn = dataSource.getConnection();
@@ -493,6 +500,8 @@ public class VideoServiceImpl implements VideoService {
     }
 
     private boolean isMatchMidBv(AuthInfo auth, String bv) {
+        WarmIndexes.VideoMeta video = warmIndexes.video(bv);
+        if (video != null) return video.getOwnerMid() == auth.getMid();
         boolean isMatch = false;
         String query = "SELECT * FROM video WHERE owner_mid = ? and BV = ?";
         try (Connection conn = dataSource.getConnection();
@@ -639,6 +648,8 @@ public class VideoServiceImpl implements VideoService {
     }
 
     private boolean isAuthSuperuser(AuthInfo auth) {
+        WarmIndexes.Credentials credentials = warmIndexes.credentials(auth.getMid());
+        if (credentials != null) return credentials.getIdentity() == UserRecord.Identity.SUPERUSER;
         boolean is = false;
         String query = "select identity from users where mid=?";
         String identity = null;
@@ -660,8 +671,10 @@ public class VideoServiceImpl implements VideoService {
     }
 
     private boolean isVideoReviewed(String bv) {
+        WarmIndexes.VideoMeta video = warmIndexes.video(bv);
+        if (video != null) return video.getReviewer() != null;
         boolean isReviewed = false;
-        String query = "select reviewer_mid from video where bv =?";
+        String query = "select reviewer_mid from video where bv =? and reviewer_mid is not null";
         try (Connection conn = dataSource.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, bv);
@@ -694,43 +707,23 @@ public class VideoServiceImpl implements VideoService {
     @Override
     public double getAverageViewRate(String bv) {
         if (!findVideo(bv)) return -1;
-        if (!isVideoWatched(bv)) return -1;
-        // find rate
-        String query = "select average/v.duration as ave from video v join (select avg(last_watch_time_duration) as average, video_BV from View where video_BV=? group by video_BV) x on v.BV = x.video_BV";
-        double avg = -1;
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, String.valueOf(bv));
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                avg = resultSet.getDouble("ave");
-            }
-            resultSet.close();
-            stmt.close();
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-        return avg;
-    }
-
-    private boolean isVideoWatched(String bv) {
-        boolean isWatched = false;
-        String query = "SELECT * FROM view WHERE video_BV = ?";
+        // view counts and time sums are kept in video_stats by the import and the view triggers
+        String query = """
+                SELECT s.view_time_sum / s.view_count / v.duration AS ave
+                FROM video_stats s
+                         JOIN video v ON v.bv = s.bv
+                WHERE s.bv = ?
+                  AND s.view_count > 0
+                """;
         try (Connection conn = dataSource.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, String.valueOf(bv));
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                isWatched = true;
+            stmt.setString(1, bv);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getDouble("ave") : -1;
             }
-            resultSet.close();
-            stmt.close();
-            stmt.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return isWatched;
     }
 
     /**
@@ -749,44 +742,30 @@ public class VideoServiceImpl implements VideoService {
     @Override
     public Set<Integer> getHotspot(String bv) {
         if (!findVideo(bv)) return Collections.emptySet();
-        // no one send danmu
-        if (!isDanmu(bv)) return Collections.emptySet();
+        // per-chunk danmu counts are kept in video_danmu_chunk by the import and the danmu triggers
+        String query = """
+                SELECT chunk
+                FROM video_danmu_chunk
+                WHERE bv = ?
+                  AND danmu_count > 0
+                  AND danmu_count = (SELECT max(danmu_count) FROM video_danmu_chunk WHERE bv = ?)
+                """;
         Set<Integer> hotspotChunks = new HashSet<>();
-        String query = "SELECT floor(time / 10)  AS chunk FROM danmu WHERE BV = ? GROUP BY chunk ORDER BY COUNT(*) DESC LIMIT 1";
         try (Connection conn = dataSource.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, bv);
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                int chunk = resultSet.getInt("chunk");
-                hotspotChunks.add(chunk);
+            stmt.setString(2, bv);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    hotspotChunks.add(resultSet.getInt("chunk"));
+                }
             }
-            resultSet.close();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
         return hotspotChunks;
     }
 
-    private boolean isDanmu(String bv) {
-        boolean isDanmu = false;
-        String query = "SELECT * FROM danmu WHERE BV = ?";
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, String.valueOf(bv));
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                isDanmu = true;
-            }
-            resultSet.close();
-            stmt.close();
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-        return isDanmu;
-    }
-
     /**
      * Reviews a video by a superuser.
      * If the video is already reviewed, do not modify the review info.
@@ -819,6 +798,7 @@ public class VideoServiceImpl implements VideoService {
             stmt.setString(3, bv);  // 设置 bv 的值
 
             int rowsAffected = stmt.executeUpdate();
+            warmIndexes.evictVideo(bv);
             return rowsAffected > 0;
         } catch (SQLException e) {
             throw new RuntimeException(e);
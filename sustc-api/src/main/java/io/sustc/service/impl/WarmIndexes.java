@@ -0,0 +1,275 @@
+package io.sustc.service.impl;
+
+import io.sustc.dto.AuthInfo;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+import io.sustc.service.impl.importer.ImportData;
+import io.sustc.service.impl.importer.ImportListener;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory lookups over the users and videos of the last import, built from the imported record lists so that
+ * the first queries after an import do not have to go to the database.
+ * <p>
+ * The indexes only ever answer for entries they hold: a miss means "ask the database", never "does not exist",
+ * so rows added online need no bookkeeping. Services that change or delete an indexed row must evict it.
+ * <p>
+ * When the records are not in memory, see {@link ImportData#isReleased()}, e.g. after a heap-budgeted import or a
+ * snapshot restore, the indexes are rebuilt by reading the tables back instead.
+ */
+@Component
+@Slf4j
+public class WarmIndexes implements ImportListener {
+
+    @Autowired
+    private DataSource dataSource;
+
+    private volatile Map<Long, Credentials> users = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Long> midsByQq = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Long> midsByWechat = new ConcurrentHashMap<>();
+
+    private volatile Map<String, VideoMeta> videos = new ConcurrentHashMap<>();
+
+    private volatile Map<Long, long[]> following = new ConcurrentHashMap<>();
+
+    @Override
+    public void onImport(ImportData data) {
+        long start = System.nanoTime();
+        List<UserRecord> userRecords;
+        List<VideoRecord> videoRecords;
+        if (data.isReleased()) {
+            userRecords = readUsers();
+            videoRecords = readVideos();
+        } else {
+            userRecords = data.getUserRecords();
+            videoRecords = data.getVideoRecords();
+        }
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> indexUsers(userRecords)),
+                CompletableFuture.runAsync(() -> indexFollowing(userRecords)),
+                CompletableFuture.runAsync(() -> indexVideos(videoRecords))
+        ).join();
+        log.info("Indexed {} users and {} videos in {} ms", users.size(), videos.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * The credentials of user {@code mid}, {@code null} if unknown.
+     */
+    public Credentials credentials(long mid) {
+        return users.get(mid);
+    }
+
+    public Long midByQq(String qq) {
+        return qq == null || qq.isEmpty() ? null : midsByQq.get(qq);
+    }
+
+    public Long midByWechat(String wechat) {
+        return wechat == null || wechat.isEmpty() ? null : midsByWechat.get(wechat);
+    }
+
+    /**
+     * Whether {@code auth} is valid by the rules of {@link io.sustc.service.UserService#deleteAccount}, or
+     * {@code null} if the indexes cannot tell.
+     */
+    public Boolean authenticate(AuthInfo auth) {
+        Long qqMid = midByQq(auth.getQq());
+        Long wechatMid = midByWechat(auth.getWechat());
+        boolean hasQq = auth.getQq() != null && !auth.getQq().isEmpty();
+        boolean hasWechat = auth.getWechat() != null && !auth.getWechat().isEmpty();
+        if (hasQq && hasWechat) {
+            return qqMid != null && wechatMid != null ? qqMid.equals(wechatMid) : null;
+        }
+        if (users.containsKey(auth.getMid()) || qqMid != null || wechatMid != null) {
+            return true;
+        }
+        return null;
+    }
+
+    /**
+     * The metadata of video {@code bv}, {@code null} if unknown.
+     */
+    public VideoMeta video(String bv) {
+        return bv == null ? null : videos.get(bv);
+    }
+
+    /**
+     * The mids followed by user {@code mid}, {@code null} if unknown. The array is shared and must not be modified.
+     */
+    public long[] following(long mid) {
+        return following.get(mid);
+    }
+
+    public void evictUser(long mid) {
+        Credentials credentials = users.remove(mid);
+        following.remove(mid);
+        if (credentials != null) {
+            if (credentials.getQq() != null) {
+                midsByQq.remove(credentials.getQq(), mid);
+            }
+            if (credentials.getWechat() != null) {
+                midsByWechat.remove(credentials.getWechat(), mid);
+            }
+        }
+    }
+
+    public void evictVideo(String bv) {
+        videos.remove(bv);
+    }
+
+    /**
+     * Forgets everything, e.g. once the tables are truncated.
+     */
+    public void clear() {
+        users = new ConcurrentHashMap<>();
+        midsByQq = new ConcurrentHashMap<>();
+        midsByWechat = new ConcurrentHashMap<>();
+        videos = new ConcurrentHashMap<>();
+        following = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The fields of the users table the indexes need, along with each user's follows.
+     */
+    private List<UserRecord> readUsers() {
+        Map<Long, UserRecord> userRecords = new LinkedHashMap<>();
+        Map<Long, List<Long>> following = new HashMap<>();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT mid, password, qq, wechat, identity FROM users")) {
+                while (rs.next()) {
+                    UserRecord user = new UserRecord();
+                    user.setMid(rs.getLong("mid"));
+                    user.setPassword(rs.getString("password"));
+                    user.setQq(rs.getString("qq"));
+                    user.setWechat(rs.getString("wechat"));
+                    user.setIdentity(UserRecord.Identity.valueOf(rs.getString("identity")));
+                    userRecords.put(user.getMid(), user);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT follower_mid, following_mid FROM follow")) {
+                while (rs.next()) {
+                    following.computeIfAbsent(rs.getLong(1), mid -> new ArrayList<>()).add(rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        for (UserRecord user : userRecords.values()) {
+            user.setFollowing(following.getOrDefault(user.getMid(), List.of()).stream()
+                    .mapToLong(Long::longValue)
+                    .toArray());
+        }
+        return new ArrayList<>(userRecords.values());
+    }
+
+    private List<VideoRecord> readVideos() {
+        List<VideoRecord> videoRecords = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT bv, owner_mid, duration, public_time, reviewer_mid, review_time FROM video")) {
+            while (rs.next()) {
+                VideoRecord video = new VideoRecord();
+                video.setBv(rs.getString("bv"));
+                video.setOwnerMid(rs.getLong("owner_mid"));
+                video.setDuration(rs.getFloat("duration"));
+                video.setPublicTime(rs.getTimestamp("public_time"));
+                video.setReviewer(rs.getObject("reviewer_mid", Long.class));
+                video.setReviewTime(rs.getTimestamp("review_time"));
+                videoRecords.add(video);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return videoRecords;
+    }
+
+    private void indexUsers(List<UserRecord> userRecords) {
+        Map<Long, Credentials> users = new ConcurrentHashMap<>(userRecords.size() * 2);
+        Map<String, Long> midsByQq = new ConcurrentHashMap<>(userRecords.size() * 2);
+        Map<String, Long> midsByWechat = new ConcurrentHashMap<>(userRecords.size() * 2);
+        for (UserRecord user : userRecords) {
+            users.put(user.getMid(), new Credentials(user.getMid(), user.getPassword(), user.getQq(),
+                    user.getWechat(), user.getIdentity()));
+            if (user.getQq() != null) {
+                midsByQq.put(user.getQq(), user.getMid());
+            }
+            if (user.getWechat() != null) {
+                midsByWechat.put(user.getWechat(), user.getMid());
+            }
+        }
+        this.users = users;
+        this.midsByQq = midsByQq;
+        this.midsByWechat = midsByWechat;
+    }
+
+    private void indexFollowing(List<UserRecord> userRecords) {
+        Map<Long, long[]> following = new ConcurrentHashMap<>(userRecords.size() * 2);
+        for (UserRecord user : userRecords) {
+            following.put(user.getMid(), user.getFollowing().clone());
+        }
+        this.following = following;
+    }
+
+    private void indexVideos(List<VideoRecord> videoRecords) {
+        Map<String, VideoMeta> videos = new ConcurrentHashMap<>(videoRecords.size() * 2);
+        for (VideoRecord video : videoRecords) {
+            videos.put(video.getBv(), new VideoMeta(video.getBv(), video.getOwnerMid(), video.getDuration(),
+                    video.getPublicTime(), video.getReviewer(), video.getReviewTime()));
+        }
+        this.videos = videos;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Credentials {
+
+        private long mid;
+
+        private String password;
+
+        private String qq;
+
+        private String wechat;
+
+        private UserRecord.Identity identity;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class VideoMeta {
+
+        private String bv;
+
+        private long ownerMid;
+
+        private float duration;
+
+        private Timestamp publicTime;
+
+        private Long reviewer;
+
+        private Timestamp reviewTime;
+    }
+}
@@ -0,0 +1,82 @@
+package io.sustc.service.impl.importer;
+
+/**
+ * Tunes the number of rows per {@code executeBatch} of one table at runtime.
+ * <p>
+ * The controller hill-climbs on throughput: it measures rows per second over a few flushes at the current size,
+ * then keeps moving the size in the same direction while throughput improves and turns around when it drops.
+ * Every turn shrinks the step, so the size settles instead of oscillating between the bounds. Wide rows thus end
+ * up with smaller batches than narrow ones without per-dataset tuning.
+ * <p>
+ * Thread-safe, since the shards of a table share one controller.
+ */
+class BatchSizeController {
+
+    /**
+     * Flushes measured before each adjustment, to smooth out latency noise.
+     */
+    private static final int SAMPLE_FLUSHES = 4;
+
+    private static final double INITIAL_STEP = 2.0;
+
+    private static final double MIN_STEP = 1.1;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private int size;
+
+    private boolean growing = true;
+
+    private double step = INITIAL_STEP;
+
+    private double lastThroughput;
+
+    private int sampledFlushes;
+
+    private long sampledRows;
+
+    private long sampledNanos;
+
+    BatchSizeController(int initialSize, int minSize, int maxSize) {
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.size = clamp(initialSize);
+    }
+
+    synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Records that a batch of {@code rows} rows took {@code nanos} to execute.
+     */
+    synchronized void record(int rows, long nanos) {
+        sampledRows += rows;
+        sampledNanos += nanos;
+        if (++sampledFlushes < SAMPLE_FLUSHES) {
+            return;
+        }
+
+        double throughput = sampledRows * 1e9 / Math.max(1, sampledNanos);
+        if (lastThroughput > 0 && throughput < lastThroughput) {
+            growing = !growing;
+            step = Math.max(MIN_STEP, Math.sqrt(step));
+        }
+        lastThroughput = throughput;
+        int next = clamp((int) Math.round(growing ? size * step : size / step));
+        if (next == size) {
+            // pinned at a bound, probe the other way next time
+            growing = !growing;
+        }
+        size = next;
+        sampledFlushes = 0;
+        sampledRows = 0;
+        sampledNanos = 0;
+    }
+
+    private int clamp(int size) {
+        return Math.max(minSize, Math.min(maxSize, size));
+    }
+}
@@ -0,0 +1,167 @@
+package io.sustc.service.impl.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.TimeZone;
+
+/**
+ * Encodes rows in the binary format of {@code COPY ... FROM STDIN WITH (FORMAT binary)}.
+ * <p>
+ * Every field is written in the server's binary send/receive representation, so neither side formats
+ * or parses text. The writer methods map to {@code int8}, {@code int4}, {@code int2}, {@code float4},
+ * {@code text} and {@code timestamp} respectively, hence the target columns must have exactly these types.
+ * <p>
+ * No field allocates anything, so encoding a row produces no garbage once the buffer has reached its size.
+ */
+class BinaryCopyWriter implements RowWriter {
+
+    private static final byte[] SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Seconds between the unix epoch and the PostgreSQL epoch (2000-01-01).
+     */
+    private static final long PG_EPOCH_SECONDS = 946_684_800L;
+
+    private final CopyTarget target;
+
+    private final int bufferSize;
+
+    private final CopyBuffer buf;
+
+    private final short fieldCount;
+
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    private boolean rowStart = true;
+
+    private long rows;
+
+    BinaryCopyWriter(CopyTarget target, CopyBufferPool pool, ImportTable table, int bufferSize) {
+        this.target = target;
+        this.bufferSize = bufferSize;
+        this.buf = new CopyBuffer(pool, bufferSize + 1024);
+        this.fieldCount = (short) table.getColumns().length;
+        for (byte b : SIGNATURE) {
+            buf.putByte(b);
+        }
+        // flags, header extension length
+        buf.putInt(0);
+        buf.putInt(0);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        startField();
+        buf.putInt(8);
+        buf.putLong(value);
+    }
+
+    @Override
+    public void writeInt(int value) {
+        startField();
+        buf.putInt(4);
+        buf.putInt(value);
+    }
+
+    @Override
+    public void writeShort(short value) {
+        startField();
+        buf.putInt(2);
+        buf.putShort(value);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+        startField();
+        buf.putInt(4);
+        buf.putInt(Float.floatToIntBits(value));
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        startField();
+        buf.putInt(8);
+        buf.putLong(Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public void writeString(String value) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        startField();
+        int lengthAt = buf.size();
+        buf.putInt(0);
+        buf.putUtf8(value, false);
+        buf.putIntAt(lengthAt, buf.size() - lengthAt - 4);
+    }
+
+    @Override
+    public void writeTimestamp(Timestamp value) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        // timestamp without time zone holds the wall-clock time, as Timestamp#toString would print it
+        long localMillis = value.getTime() + timeZone.getOffset(value.getTime());
+        long micros = (Math.floorDiv(localMillis, 1000L) - PG_EPOCH_SECONDS) * 1_000_000L
+                + (value.getNanos() + 500) / 1000;
+        startField();
+        buf.putInt(8);
+        buf.putLong(micros);
+    }
+
+    @Override
+    public void writeNull() {
+        startField();
+        buf.putInt(-1);
+    }
+
+    @Override
+    public void endRow() throws SQLException {
+        rowStart = true;
+        rows++;
+        if (buf.size() >= bufferSize) {
+            buf.flushTo(target);
+        }
+    }
+
+    @Override
+    public void finish() throws SQLException {
+        buf.putShort(-1);
+        buf.endTo(target);
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public long getByteCount() {
+        return buf.getFlushedBytes();
+    }
+
+    @Override
+    public LatencyHistogram getFlushLatencies() {
+        return buf.getFlushLatencies();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            target.cancel();
+        } finally {
+            buf.release();
+        }
+    }
+
+    private void startField() {
+        if (rowStart) {
+            rowStart = false;
+            buf.putShort(fieldCount);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package io.sustc.service.impl.importer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Drops the secondary indexes and foreign keys of the {@link ImportTable}s before a bulk load and
+ * puts them back afterwards.
+ * <p>
+ * The dropped definitions are saved in the {@code import_deferred_ddl} table in the same transaction as the
+ * drops, so a schema left incomplete by a crashed import is restored at the start of the next one.
+ * Restoring rebuilds the indexes concurrently, re-adds the foreign keys as {@code NOT VALID} and then
+ * validates them concurrently.
+ */
+@Component
+@Slf4j
+public class ConstraintDeferral {
+
+    static final String BACKUP_TABLE = "import_deferred_ddl";
+
+    private static final String FIND_FOREIGN_KEYS = """
+            SELECT c.conrelid::regclass::text AS tbl, quote_ident(c.conname) AS name, pg_get_constraintdef(c.oid) AS def
+            FROM pg_constraint c
+            WHERE c.contype = 'f'
+              AND c.conrelid = ANY (?::text[]::regclass[])
+            """;
+
+    private static final String FIND_INDEXES = """
+            SELECT i.indrelid::regclass::text AS tbl, i.indexrelid::regclass::text AS name,
+                   pg_get_indexdef(i.indexrelid) AS def
+            FROM pg_index i
+            WHERE i.indrelid = ANY (?::text[]::regclass[])
+              AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)
+            """;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ImportProperties properties;
+
+    /**
+     * Records and drops the secondary indexes and foreign keys of the import tables.
+     *
+     * @return the dropped objects, to be passed to {@link #restore(List)}
+     */
+    public List<DeferredObject> defer() {
+        List<DeferredObject> leftover = loadBackup();
+        if (!leftover.isEmpty()) {
+            log.warn("Restoring {} objects deferred by an unfinished import", leftover.size());
+            restore(leftover);
+        }
+
+        List<DeferredObject> deferred = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Array tables = conn.createArrayOf("text", Arrays.stream(ImportTable.values())
+                    .map(ImportTable::getTableName)
+                    .toArray());
+            deferred.addAll(find(conn, FIND_FOREIGN_KEYS, tables, Kind.FOREIGN_KEY));
+            deferred.addAll(find(conn, FIND_INDEXES, tables, Kind.INDEX));
+
+            try (Statement stmt = conn.createStatement();
+                 PreparedStatement insert = conn.prepareStatement(
+                         "INSERT INTO " + BACKUP_TABLE + " (kind, tbl, name, ddl) VALUES (?, ?, ?, ?)")) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + BACKUP_TABLE
+                        + " (kind text NOT NULL, tbl text NOT NULL, name text NOT NULL, ddl text NOT NULL)");
+                for (DeferredObject object : deferred) {
+                    insert.setString(1, object.getKind().name());
+                    insert.setString(2, object.getTable());
+                    insert.setString(3, object.getName());
+                    insert.setString(4, object.getDdl());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                // foreign keys first, they may depend on the indexes
+                for (DeferredObject object : deferred) {
+                    stmt.execute(object.getKind() == Kind.FOREIGN_KEY
+                            ? "ALTER TABLE " + object.getTable() + " DROP CONSTRAINT " + object.getName()
+                            : "DROP INDEX " + object.getName());
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        log.info("Deferred {} foreign keys and indexes", deferred.size());
+        return deferred;
+    }
+
+    /**
+     * Rebuilds the dropped indexes and foreign keys, then {@linkplain #validate(List) validates} the foreign keys.
+     * Objects that already exist are skipped, so restoring twice is harmless.
+     *
+     * @throws RuntimeException if the loaded data violates a foreign key; the constraint is in place but left
+     *                          {@code NOT VALID}, call {@link #validate(List)} again once the offending rows are gone
+     */
+    public void restore(List<DeferredObject> deferred) {
+        long start = System.nanoTime();
+        runConcurrently(deferred.stream()
+                .filter(object -> object.getKind() == Kind.INDEX)
+                .map(ConstraintDeferral::createIfNotExists)
+                .collect(Collectors.toList()));
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement();
+                 PreparedStatement exists = conn.prepareStatement(
+                         "SELECT 1 FROM pg_constraint WHERE conrelid = ?::regclass AND quote_ident(conname) = ?")) {
+                for (DeferredObject object : deferred) {
+                    if (object.getKind() != Kind.FOREIGN_KEY) {
+                        continue;
+                    }
+                    exists.setString(1, object.getTable());
+                    exists.setString(2, object.getName());
+                    try (ResultSet rs = exists.executeQuery()) {
+                        if (rs.next()) {
+                            continue;
+                        }
+                    }
+                    // adding as NOT VALID skips the scan, validation happens concurrently below
+                    stmt.execute("ALTER TABLE " + object.getTable() + " ADD CONSTRAINT " + object.getName() + " "
+                            + object.getDdl() + (isNotValid(object) ? "" : " NOT VALID"));
+                }
+                stmt.execute("DELETE FROM " + BACKUP_TABLE);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        validate(deferred);
+        log.info("Restored {} foreign keys and indexes in {} ms", deferred.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Validates the restored foreign keys, except those that were {@code NOT VALID} before the import.
+     */
+    public void validate(List<DeferredObject> deferred) {
+        runConcurrently(deferred.stream()
+                .filter(object -> object.getKind() == Kind.FOREIGN_KEY && !isNotValid(object))
+                .map(object -> "ALTER TABLE " + object.getTable() + " VALIDATE CONSTRAINT " + object.getName())
+                .collect(Collectors.toList()));
+    }
+
+    private List<DeferredObject> loadBackup() {
+        List<DeferredObject> backup = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet exists = stmt.executeQuery("SELECT to_regclass('" + BACKUP_TABLE + "')")) {
+                if (!exists.next() || exists.getString(1) == null) {
+                    return backup;
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT kind, tbl, name, ddl FROM " + BACKUP_TABLE)) {
+                while (rs.next()) {
+                    backup.add(new DeferredObject(Kind.valueOf(rs.getString("kind")),
+                            rs.getString("tbl"), rs.getString("name"), rs.getString("ddl")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return backup;
+    }
+
+    private List<DeferredObject> find(Connection conn, String sql, Array tables, Kind kind) throws SQLException {
+        List<DeferredObject> found = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, tables);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(new DeferredObject(kind, rs.getString("tbl"), rs.getString("name"), rs.getString("def")));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Executes each statement on its own connection, waiting for all of them before reporting the first failure.
+     */
+    private void runConcurrently(List<String> statements) {
+        if (statements.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(properties.getParallelism(), statements.size())));
+        try {
+            CompletableFuture.allOf(statements.stream()
+                    .map(sql -> CompletableFuture.runAsync(() -> execute(sql), executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void execute(String sql) {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            throw new RuntimeException(sql, e);
+        }
+    }
+
+    /**
+     * The {@code CREATE INDEX} statement of a deferred index, skipped if it was already rebuilt.
+     */
+    static String createIfNotExists(DeferredObject index) {
+        return index.getDdl().replaceFirst("INDEX ", "INDEX IF NOT EXISTS ");
+    }
+
+    private static boolean isNotValid(DeferredObject object) {
+        return object.getDdl().endsWith("NOT VALID");
+    }
+
+    public enum Kind {
+        INDEX,
+        FOREIGN_KEY,
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class DeferredObject {
+
+        private Kind kind;
+
+        /**
+         * The owning table, as printed by {@code regclass}.
+         */
+        private String table;
+
+        /**
+         * The constraint or index name, quoted where needed.
+         */
+        private String name;
+
+        /**
+         * {@code CREATE INDEX} statement for indexes, {@code FOREIGN KEY ...} clause for foreign keys.
+         */
+        private String ddl;
+    }
+}
@@ -0,0 +1,216 @@
+package io.sustc.service.impl.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that COPY writers encode rows into before handing them to a {@link CopyTarget}.
+ * The backing array is reused across flushes and taken from a {@link CopyBufferPool}, to which it goes back on
+ * {@link #release()}. None of the methods allocate unless the buffer has to grow.
+ */
+class CopyBuffer {
+
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final CopyBufferPool pool;
+
+    private byte[] buf;
+
+    private int pos;
+
+    private long flushed;
+
+    private final LatencyHistogram flushLatencies = new LatencyHistogram();
+
+    CopyBuffer(CopyBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.buf = pool.acquire(capacity);
+    }
+
+    int size() {
+        return pos;
+    }
+
+    void putByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    void putShort(int v) {
+        ensure(2);
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    void putInt(int v) {
+        ensure(4);
+        putIntAt(pos, v);
+        pos += 4;
+    }
+
+    void putLong(long v) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (v >>> shift);
+        }
+    }
+
+    /**
+     * Appends {@code v} in decimal, like {@link Long#toString(long)} but without the intermediate string.
+     */
+    void putDecimal(long v) {
+        if (v == Long.MIN_VALUE) {
+            ensure(LONG_MIN_VALUE.length);
+            System.arraycopy(LONG_MIN_VALUE, 0, buf, pos, LONG_MIN_VALUE.length);
+            pos += LONG_MIN_VALUE.length;
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        // the digits came out least significant first
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte digit = buf[i];
+            buf[i] = buf[j];
+            buf[j] = digit;
+        }
+    }
+
+    /**
+     * Appends the lowest {@code width} decimal digits of {@code v}, which must not be negative, zero-padded.
+     */
+    void putDigits(long v, int width) {
+        ensure(width);
+        for (int i = pos + width - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos += width;
+    }
+
+    void putAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Appends {@code s} as UTF-8.
+     *
+     * @param escape whether to apply the backslash escapes of COPY's text format
+     */
+    void putUtf8(String s, boolean escape) {
+        // worst case: 3 bytes per UTF-16 unit, escapes take 2 bytes
+        ensure(s.length() * 3);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (escape && (c == '\\' || c == '\t' || c == '\n' || c == '\r')) {
+                    buf[pos++] = '\\';
+                    buf[pos++] = (byte) (c == '\\' ? '\\' : c == '\t' ? 't' : c == '\n' ? 'n' : 'r');
+                } else {
+                    buf[pos++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Overwrites 4 bytes at {@code index}, used to patch length prefixes once a field is encoded.
+     */
+    void putIntAt(int index, int v) {
+        buf[index] = (byte) (v >>> 24);
+        buf[index + 1] = (byte) (v >>> 16);
+        buf[index + 2] = (byte) (v >>> 8);
+        buf[index + 3] = (byte) v;
+    }
+
+    void flushTo(CopyTarget target) throws SQLException {
+        if (pos > 0) {
+            long start = System.nanoTime();
+            target.write(buf, 0, pos);
+            flushLatencies.record(System.nanoTime() - start);
+            flushed += pos;
+            pos = 0;
+        }
+    }
+
+    /**
+     * Ends {@code target}, timing it like a flush since the server finishes processing the stream meanwhile.
+     */
+    void endTo(CopyTarget target) throws SQLException {
+        flushTo(target);
+        long start = System.nanoTime();
+        target.end();
+        flushLatencies.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Hands the backing array back to the pool. The buffer must not be used afterwards; releasing twice is harmless.
+     */
+    void release() {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+    }
+
+    LatencyHistogram getFlushLatencies() {
+        return flushLatencies;
+    }
+
+    /**
+     * Total number of bytes handed to targets so far.
+     */
+    long getFlushedBytes() {
+        return flushed;
+    }
+
+    /**
+     * The number of bytes {@link #putUtf8(String, boolean)} writes for {@code s} without escapes.
+     */
+    static int utf8Length(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // surrogate pairs take 4 bytes for 2 units, anything else 3 bytes
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+}
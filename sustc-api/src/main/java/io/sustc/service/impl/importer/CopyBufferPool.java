@@ -0,0 +1,37 @@
+package io.sustc.service.impl.importer;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Recycles the arrays of the {@link CopyBuffer}s, so that opening a COPY writer per slice or chunk does not allocate
+ * a new encoding buffer each time.
+ * <p>
+ * Arrays are plain heap arrays: the driver's {@link org.postgresql.copy.CopyIn} only accepts {@code byte[]}, so
+ * direct buffers would have to be copied into one before every write.
+ */
+@Component
+class CopyBufferPool {
+
+    /**
+     * Arrays kept beyond what the current writers hold, roughly one per concurrent writer.
+     */
+    private static final int MAX_POOLED = 64;
+
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    /**
+     * An array of at least {@code capacity} bytes, with arbitrary contents.
+     */
+    byte[] acquire(int capacity) {
+        byte[] buf = free.poll();
+        // an array from a smaller configuration is dropped rather than returned
+        return buf != null && buf.length >= capacity ? buf : new byte[capacity];
+    }
+
+    void release(byte[] buf) {
+        free.offer(buf);
+    }
+}
@@ -0,0 +1,60 @@
+package io.sustc.service.impl.importer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where the COPY writers send their encoded bytes.
+ */
+interface CopyTarget {
+
+    void write(byte[] buf, int off, int len) throws SQLException;
+
+    void end() throws SQLException;
+
+    /**
+     * Aborts the operation unless it already {@linkplain #end() ended}.
+     */
+    void cancel() throws SQLException;
+
+    static CopyTarget copyIn(Connection conn, String sql) throws SQLException {
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        return new CopyTarget() {
+            @Override
+            public void write(byte[] buf, int off, int len) throws SQLException {
+                copyIn.writeToCopy(buf, off, len);
+            }
+
+            @Override
+            public void end() throws SQLException {
+                copyIn.endCopy();
+            }
+
+            @Override
+            public void cancel() throws SQLException {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        };
+    }
+
+    static CopyTarget discard() {
+        return new CopyTarget() {
+            @Override
+            public void write(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void end() {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+package io.sustc.service.impl.importer;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the database back to its state before any import, in one of two {@link Mode}s:
+ * <ul>
+ *   <li>{@link Mode#TRUNCATE}: a single {@code TRUNCATE ... RESTART IDENTITY CASCADE} over every table in
+ *   {@code public}, so locks are taken once and sequences start over, those of the {@link IdAllocator} included.
+ *   The {@link ConstraintDeferral} backup is kept, as it is all that is left to restore a schema an interrupted
+ *   import dropped objects from.</li>
+ *   <li>{@link Mode#TEMPLATE}: drops the whole database and re-creates it from a pristine template database.
+ *   Dropping does not depend on how much data was loaded and the copy only on the size of the template, so this
+ *   takes about the same time however large the last import was.</li>
+ * </ul>
+ * The settings of {@link Mode#TEMPLATE} are checked on startup, so a misconfigured reset fails before the first
+ * import rather than after it.
+ */
+@Component
+@Slf4j
+public class DatabaseReset {
+
+    private static final Pattern JDBC_URL = Pattern.compile("^(jdbc:postgresql://[^/]*/)([^?]*)(.*)$");
+
+    private final DataSource dataSource;
+
+    private final ImportProperties properties;
+
+    private final IdAllocator idAllocator;
+
+    private final SummaryTables summaryTables;
+
+    /**
+     * The database the pool points to and the URL of the maintenance database, {@code null} unless in
+     * {@link Mode#TEMPLATE}.
+     */
+    private final String database;
+
+    private final String maintenanceUrl;
+
+    @Autowired
+    public DatabaseReset(DataSource dataSource, ImportProperties properties, IdAllocator idAllocator,
+                         SummaryTables summaryTables) {
+        this.dataSource = dataSource;
+        this.properties = properties;
+        this.idAllocator = idAllocator;
+        this.summaryTables = summaryTables;
+        if (properties.getReset() != Mode.TEMPLATE) {
+            this.database = null;
+            this.maintenanceUrl = null;
+            return;
+        }
+        if (!(dataSource instanceof HikariDataSource hikari)) {
+            throw new IllegalStateException("Template reset needs a HikariCP data source");
+        }
+        Matcher url = JDBC_URL.matcher(hikari.getJdbcUrl());
+        if (!url.matches()) {
+            throw new IllegalStateException("Unsupported JDBC URL " + hikari.getJdbcUrl());
+        }
+        this.database = url.group(2);
+        if (database.equals(properties.getResetMaintenanceDatabase())
+                || database.equals(properties.getResetTemplate())) {
+            throw new IllegalStateException("Template reset needs a database of its own, not " + database
+                    + ", which is also import.reset-maintenance-database or import.reset-template");
+        }
+        this.maintenanceUrl = url.group(1) + properties.getResetMaintenanceDatabase() + url.group(3);
+    }
+
+    public void reset() {
+        long start = System.nanoTime();
+        switch (properties.getReset()) {
+            case TRUNCATE -> truncate();
+            case TEMPLATE -> recreateFromTemplate();
+        }
+        log.info("Reset the database by {} in {} ms", properties.getReset(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void truncate() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT quote_ident(tablename) FROM pg_tables WHERE schemaname = 'public' AND tablename <> '"
+                            + ConstraintDeferral.BACKUP_TABLE + "'")) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            if (!tables.isEmpty()) {
+                stmt.execute("TRUNCATE TABLE " + String.join(", ", tables) + " RESTART IDENTITY CASCADE");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        // no table owns these, so RESTART IDENTITY leaves them alone
+        idAllocator.restart();
+    }
+
+    /**
+     * Connects to {@link ImportProperties#getResetMaintenanceDatabase()} with the credentials of the pool,
+     * force-drops the database the pool points to and clones {@link ImportProperties#getResetTemplate()} in its place.
+     * Requires PostgreSQL 13 or later and the {@code CREATEDB} privilege.
+     */
+    private void recreateFromTemplate() {
+        HikariDataSource hikari = (HikariDataSource) dataSource;
+        // idle connections close right away, the rest are terminated by the drop
+        evictConnections(hikari);
+        try (Connection conn = DriverManager.getConnection(maintenanceUrl, hikari.getUsername(), hikari.getPassword());
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP DATABASE IF EXISTS " + quote(database) + " WITH (FORCE)");
+            stmt.execute("CREATE DATABASE " + quote(database) + " TEMPLATE " + quote(properties.getResetTemplate()));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        // the pool may have refilled with connections to the dropped database meanwhile
+        evictConnections(hikari);
+        // the id sequences start over with the template
+        idAllocator.clear();
+        // a template made before the summary tables existed has neither them nor their triggers
+        summaryTables.install();
+    }
+
+    /**
+     * Evicts the connections of the pool, unless it has not handed out any yet, in which case it has no pool to
+     * evict from and no MXBean.
+     */
+    private static void evictConnections(HikariDataSource hikari) {
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool != null) {
+            pool.softEvictConnections();
+        }
+    }
+
+    private static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    public enum Mode {
+        TRUNCATE,
+        TEMPLATE,
+    }
+}
@@ -0,0 +1,270 @@
+package io.sustc.service.impl.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out {@code mid}s and {@code danmu_id}s from blocks reserved in database sequences (hi/lo).
+ * <p>
+ * Each {@link Sequence} is backed by a sequence that increments by the block size, so one {@code nextval} reserves
+ * the block of ids ending at the returned value for this JVM alone. Ids within a block are handed out with an atomic
+ * increment, and only the thread that finds the block exhausted goes to the database for the next one. Ids are
+ * therefore unique across threads and app instances, but neither dense nor in commit order.
+ * <p>
+ * The importer reserves whole blocks for its danmus in one round trip, and after loading rows with ids of their own
+ * the sequences are {@linkplain #advancePastTables() moved past them}. A database reset
+ * {@linkplain #restart() restarts} them, so ids start over at 1 like those of serial columns.
+ */
+@Component
+@Slf4j
+public class IdAllocator {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ImportProperties properties;
+
+    private final Map<Sequence, AtomicReference<Block>> current = new EnumMap<>(Sequence.class);
+
+    /**
+     * The block size of each sequence as created, which may differ from the configured one.
+     */
+    private final Map<Sequence, Integer> blockSizes = new EnumMap<>(Sequence.class);
+
+    public IdAllocator() {
+        for (Sequence sequence : Sequence.values()) {
+            current.put(sequence, new AtomicReference<>());
+        }
+    }
+
+    /**
+     * A fresh id of {@code sequence}.
+     */
+    public long next(Sequence sequence) {
+        AtomicReference<Block> ref = current.get(sequence);
+        while (true) {
+            Block block = ref.get();
+            if (block != null) {
+                long id = block.next.getAndIncrement();
+                if (id <= block.last) {
+                    return id;
+                }
+            }
+            refill(sequence, ref, block);
+        }
+    }
+
+    /**
+     * Reserves enough blocks of {@code sequence} for {@code count} ids, with a single round trip.
+     */
+    public Blocks reserve(Sequence sequence, int count) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT nextval('" + sequence.getSequenceName() + "') FROM generate_series(1, ?)")) {
+            int size = blockSize(conn, sequence);
+            long[] ends = new long[(int) ((count + (long) size - 1) / size)];
+            stmt.setInt(1, ends.length);
+            try (ResultSet rs = stmt.executeQuery()) {
+                for (int i = 0; rs.next(); i++) {
+                    ends[i] = rs.getLong(1);
+                }
+            }
+            return new Blocks(size, ends);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Moves every sequence past the largest id in its column, e.g. after rows were loaded with ids of their own,
+     * and drops the blocks held by this JVM, as the loaded rows may have taken ids from them. Not atomic with
+     * respect to other instances reserving blocks or threads taking ids meanwhile, so it is meant to run while
+     * nothing else writes.
+     */
+    public void advancePastTables() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (Sequence sequence : Sequence.values()) {
+                blockSize(conn, sequence);
+                stmt.execute("SELECT setval('" + sequence.getSequenceName() + "', greatest("
+                        + "(SELECT coalesce(max(" + sequence.getColumn() + "), 0) FROM " + sequence.getTable() + "), "
+                        + "(SELECT last_value FROM " + sequence.getSequenceName() + ")))");
+                dropBlock(sequence);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Starts every sequence over, once the tables holding the ids were emptied. Sequences that were never created
+     * are left alone.
+     */
+    public void restart() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (Sequence sequence : Sequence.values()) {
+                stmt.execute("ALTER SEQUENCE IF EXISTS " + sequence.getSequenceName() + " RESTART");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        clear();
+    }
+
+    /**
+     * Drops the blocks held by this JVM, which is needed once the sequences themselves may have been reset.
+     */
+    public void clear() {
+        current.values().forEach(ref -> ref.set(null));
+        synchronized (blockSizes) {
+            blockSizes.clear();
+        }
+    }
+
+    private void dropBlock(Sequence sequence) {
+        AtomicReference<Block> ref = current.get(sequence);
+        // keeps a concurrent refill from installing a block reserved before the move
+        synchronized (ref) {
+            ref.set(null);
+        }
+    }
+
+    private void refill(Sequence sequence, AtomicReference<Block> ref, Block exhausted) {
+        synchronized (ref) {
+            if (ref.get() != exhausted) {
+                // another thread got here first
+                return;
+            }
+            try (Connection conn = dataSource.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                int size = blockSize(conn, sequence);
+                try (ResultSet rs = stmt.executeQuery("SELECT nextval('" + sequence.getSequenceName() + "')")) {
+                    rs.next();
+                    long last = rs.getLong(1);
+                    ref.set(new Block(last - size + 1, last));
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates the sequence of {@code sequence} if needed and returns its increment.
+     */
+    private int blockSize(Connection conn, Sequence sequence) throws SQLException {
+        synchronized (blockSizes) {
+            Integer size = blockSizes.get(sequence);
+            if (size != null) {
+                return size;
+            }
+        }
+        int configured = Math.max(1, properties.getIdBlockSize());
+        try (Statement stmt = conn.createStatement()) {
+            // the value is the last id of the block, so the first block is [1, size]
+            stmt.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence.getSequenceName()
+                    + " INCREMENT BY " + configured + " START WITH " + configured);
+            try (ResultSet rs = stmt.executeQuery("SELECT increment_by FROM pg_sequences WHERE schemaname = "
+                    + "current_schema() AND sequencename = '" + sequence.getSequenceName() + "'")) {
+                rs.next();
+                int size = (int) rs.getLong(1);
+                if (size != configured) {
+                    log.warn("{} keeps its block size of {}, drop it to use {}", sequence.getSequenceName(),
+                            size, configured);
+                }
+                synchronized (blockSizes) {
+                    blockSizes.put(sequence, size);
+                }
+                return size;
+            }
+        }
+    }
+
+    public enum Sequence {
+        USER_MID("id_user_mid", "users", "mid"),
+        DANMU_ID("id_danmu_id", "danmu", "danmu_id");
+
+        private final String sequenceName;
+
+        private final String table;
+
+        private final String column;
+
+        Sequence(String sequenceName, String table, String column) {
+            this.sequenceName = sequenceName;
+            this.table = table;
+            this.column = column;
+        }
+
+        public String getSequenceName() {
+            return sequenceName;
+        }
+
+        /**
+         * The table holding the ids, and its column.
+         */
+        public String getTable() {
+            return table;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+    }
+
+    /**
+     * Whole blocks reserved at once, numbering {@code count} items by their index.
+     */
+    public static class Blocks {
+
+        private final int size;
+
+        private final long[] ends;
+
+        Blocks(int size, long[] ends) {
+            this.size = size;
+            this.ends = ends;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long id(int index) {
+            return ends[index / size] - size + 1 + index % size;
+        }
+
+        /**
+         * The last id of each block, as stored by the {@link ImportLedger}.
+         */
+        long[] getEnds() {
+            return ends;
+        }
+    }
+
+    private static class Block {
+
+        private final AtomicLong next;
+
+        private final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Per-user and per-video aggregates of the imported records, loaded into the {@link SummaryTables} so that
+ * online queries read them instead of recounting the relation tables.
+ * <p>
+ * Each aggregate is computed by its own task in one pass over the records it derives from.
+ */
+public class ImportAggregates {
+
+    /**
+     * Length of the chunks {@link io.sustc.service.VideoService#getHotspot} splits a video into, in seconds.
+     */
+    public static final int HOTSPOT_CHUNK_SECONDS = 10;
+
+    private static final int[] NO_CHUNKS = new int[0];
+
+    /**
+     * Indexed like {@link ImportData#getUserRecords()}.
+     */
+    private final int[] followerCounts;
+
+    /**
+     * Indexed like {@link ImportData#getVideoRecords()}.
+     */
+    private final int[] danmuCounts;
+
+    /**
+     * Danmu counts per {@value #HOTSPOT_CHUNK_SECONDS}-second chunk, indexed like {@link ImportData#getVideoRecords()}.
+     */
+    private final int[][] danmuChunks;
+
+    private final double[] viewTimeSums;
+
+    private final int[] finishedViewCounts;
+
+    ImportAggregates(ImportData data) {
+        List<UserRecord> users = data.getUserRecords();
+        List<VideoRecord> videos = data.getVideoRecords();
+        this.followerCounts = new int[users.size()];
+        this.danmuCounts = new int[videos.size()];
+        this.danmuChunks = new int[videos.size()][];
+        this.viewTimeSums = new double[videos.size()];
+        this.finishedViewCounts = new int[videos.size()];
+
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> countFollowers(users)),
+                CompletableFuture.runAsync(() -> countDanmus(data.getDanmuRecords(), videos)),
+                CompletableFuture.runAsync(() -> sumViews(videos))
+        ).join();
+    }
+
+    public int getFollowerCount(int user) {
+        return followerCounts[user];
+    }
+
+    public int getDanmuCount(int video) {
+        return danmuCounts[video];
+    }
+
+    /**
+     * The number of danmus per {@value #HOTSPOT_CHUNK_SECONDS}-second chunk of a video. The array may end before
+     * or after the last chunk of the video, and holds zeros for chunks without danmus.
+     */
+    public int[] getDanmuChunks(int video) {
+        return danmuChunks[video] == null ? NO_CHUNKS : danmuChunks[video];
+    }
+
+    public double getViewTimeSum(int video) {
+        return viewTimeSums[video];
+    }
+
+    public int getFinishedViewCount(int video) {
+        return finishedViewCounts[video];
+    }
+
+    private void countFollowers(List<UserRecord> users) {
+        Map<Long, Integer> indexes = new HashMap<>(users.size() * 2);
+        for (int i = 0; i < users.size(); i++) {
+            indexes.put(users.get(i).getMid(), i);
+        }
+        for (UserRecord user : users) {
+            for (long following : user.getFollowing()) {
+                Integer index = indexes.get(following);
+                if (index != null) {
+                    followerCounts[index]++;
+                }
+            }
+        }
+    }
+
+    private void countDanmus(List<DanmuRecord> danmus, List<VideoRecord> videos) {
+        Map<String, Integer> indexes = new HashMap<>(videos.size() * 2);
+        for (int i = 0; i < videos.size(); i++) {
+            indexes.put(videos.get(i).getBv(), i);
+        }
+        for (DanmuRecord danmu : danmus) {
+            Integer index = indexes.get(danmu.getBv());
+            if (index == null) {
+                continue;
+            }
+            danmuCounts[index]++;
+            int chunk = (int) Math.floor(danmu.getTime() / HOTSPOT_CHUNK_SECONDS);
+            if (chunk < 0) {
+                continue;
+            }
+            int[] chunks = danmuChunks[index];
+            if (chunks == null || chunks.length <= chunk) {
+                chunks = danmuChunks[index] = chunks == null
+                        ? new int[chunk + 1]
+                        : Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+            }
+            chunks[chunk]++;
+        }
+    }
+
+    private void sumViews(List<VideoRecord> videos) {
+        for (int i = 0; i < videos.size(); i++) {
+            VideoRecord video = videos.get(i);
+            double sum = 0;
+            int finished = 0;
+            for (float viewTime : video.getViewTime()) {
+                sum += viewTime;
+                if (viewTime >= video.getDuration()) {
+                    finished++;
+                }
+            }
+            viewTimeSums[i] = sum;
+            finishedViewCounts[i] = finished;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * The record lists passed to {@link io.sustc.service.DatabaseService#importData}.
+ */
+@Getter
+public class ImportData {
+
+    private static final Set<ImportTable> USER_TABLES =
+            EnumSet.of(ImportTable.USERS, ImportTable.FOLLOW, ImportTable.USER_STATS);
+
+    private static final Set<ImportTable> VIDEO_TABLES = EnumSet.of(ImportTable.VIDEO, ImportTable.THUMBS_UP,
+            ImportTable.COIN, ImportTable.FAVORITE, ImportTable.VIEW, ImportTable.VIDEO_STATS,
+            ImportTable.VIDEO_DANMU_CHUNK);
+
+    private static final Set<ImportTable> DANMU_TABLES = EnumSet.of(ImportTable.DANMU, ImportTable.DANMU_LIKE_BY);
+
+    private List<DanmuRecord> danmuRecords;
+
+    private List<UserRecord> userRecords;
+
+    private List<VideoRecord> videoRecords;
+
+    private ImportAggregates aggregates;
+
+    /**
+     * Record indexes in load order, {@code null} while the records load in list order.
+     */
+    private int[] userOrder;
+
+    private int[] videoOrder;
+
+    private int[] danmuOrder;
+
+    /**
+     * Reserves the blocks {@code danmu_id}s are taken from on first use, {@code null} to number danmus from 1.
+     */
+    @Getter(AccessLevel.NONE)
+    private Supplier<IdAllocator.Blocks> danmuIdReservation;
+
+    @Getter(AccessLevel.NONE)
+    private volatile IdAllocator.Blocks danmuIds;
+
+    /**
+     * The tables whose records must be kept, see {@link #release(ImportTable)}.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Set<ImportTable> retained = EnumSet.allOf(ImportTable.class);
+
+    public ImportData(List<DanmuRecord> danmuRecords, List<UserRecord> userRecords, List<VideoRecord> videoRecords) {
+        this.danmuRecords = danmuRecords;
+        this.userRecords = userRecords;
+        this.videoRecords = videoRecords;
+    }
+
+    /**
+     * Data whose records are not in memory, e.g. for tables restored from an {@link ImportSnapshots snapshot}.
+     */
+    static ImportData unavailable() {
+        ImportData data = new ImportData(List.of(), List.of(), List.of());
+        data.retained.clear();
+        return data;
+    }
+
+    /**
+     * Replaces the record lists, e.g. with the records that passed {@link ImportValidation}.
+     * Must be called before anything derived from the records is computed.
+     */
+    void replaceRecords(List<DanmuRecord> danmuRecords, List<UserRecord> userRecords,
+                        List<VideoRecord> videoRecords) {
+        this.danmuRecords = danmuRecords;
+        this.userRecords = userRecords;
+        this.videoRecords = videoRecords;
+    }
+
+    /**
+     * Lets go of the records {@code table} is derived from once none of the other tables derived from them needs
+     * them anymore, along with their load order, so that the rest of the import can reuse their heap. Released
+     * record lists read as empty afterwards, e.g. to the {@link ImportListener}s.
+     * <p>
+     * The {@linkplain #getAggregates() aggregates} cover all three record lists, so they must be computed before
+     * the first release.
+     */
+    synchronized void release(ImportTable table) {
+        retained.remove(table);
+        if (USER_TABLES.stream().noneMatch(retained::contains)) {
+            userRecords = List.of();
+            userOrder = null;
+        }
+        if (VIDEO_TABLES.stream().noneMatch(retained::contains)) {
+            videoRecords = List.of();
+            videoOrder = null;
+        }
+        if (DANMU_TABLES.stream().noneMatch(retained::contains)) {
+            danmuRecords = List.of();
+            danmuOrder = null;
+        }
+    }
+
+    /**
+     * Whether the records of any table were {@linkplain #release(ImportTable) released} or never in memory, after
+     * which the record lists no longer hold everything that was imported.
+     */
+    public synchronized boolean isReleased() {
+        return retained.size() < ImportTable.values().length;
+    }
+
+    /**
+     * The {@code danmu_id} assigned to the danmu at {@code index} of {@link #getDanmuRecords()}.
+     */
+    public long danmuId(int index) {
+        IdAllocator.Blocks blocks = danmuIds;
+        if (blocks == null) {
+            if (danmuIdReservation == null) {
+                return index + 1L;
+            }
+            blocks = reserveDanmuIds();
+        }
+        return blocks.id(index);
+    }
+
+    /**
+     * Numbers the danmus from the blocks {@code reservation} returns, which must hold at least one id per danmu.
+     * It is only called once the first danmu id is needed, so a pipelined import does not wait for the danmus to be
+     * decoded. Must be called before loading starts.
+     */
+    public void assignDanmuIds(Supplier<IdAllocator.Blocks> reservation) {
+        this.danmuIdReservation = reservation;
+    }
+
+    private synchronized IdAllocator.Blocks reserveDanmuIds() {
+        if (danmuIds == null) {
+            danmuIds = danmuIdReservation.get();
+        }
+        return danmuIds;
+    }
+
+    /**
+     * The index into {@link #getUserRecords()} of the user loaded at {@code position}.
+     */
+    public int userAt(int position) {
+        return userOrder == null ? position : userOrder[position];
+    }
+
+    /**
+     * The index into {@link #getVideoRecords()} of the video loaded at {@code position}.
+     */
+    public int videoAt(int position) {
+        return videoOrder == null ? position : videoOrder[position];
+    }
+
+    /**
+     * The index into {@link #getDanmuRecords()} of the danmu loaded at {@code position}.
+     */
+    public int danmuAt(int position) {
+        return danmuOrder == null ? position : danmuOrder[position];
+    }
+
+    /**
+     * Changes the load order to users by {@code mid}, videos by {@code bv} and danmus by {@code bv} and
+     * {@code time}, so that rows looked up together end up on the same heap pages. The rows derived from a
+     * record follow its order, e.g. the views of a video are loaded in the order of the videos.
+     * <p>
+     * Must be called before loading starts. {@link #danmuId(int)} still numbers danmus by their list index.
+     */
+    public void sortByAccessKey() {
+        CompletableFuture<int[]> users = CompletableFuture.supplyAsync(() -> {
+            long[] mids = new long[userRecords.size()];
+            for (int i = 0; i < mids.length; i++) {
+                mids[i] = userRecords.get(i).getMid();
+            }
+            return IndexSort.byKey(mids);
+        });
+        String[] bvs = new String[videoRecords.size()];
+        for (int i = 0; i < bvs.length; i++) {
+            bvs[i] = videoRecords.get(i).getBv();
+        }
+        int[] videos = IndexSort.sort(bvs.length, (a, b) -> bvs[a].compareTo(bvs[b]));
+
+        // danmus sort by the load position of their video, then by time
+        Map<String, Integer> positions = new HashMap<>(bvs.length * 2);
+        for (int p = 0; p < videos.length; p++) {
+            positions.put(bvs[videos[p]], p);
+        }
+        long[] keys = new long[danmuRecords.size()];
+        for (int i = 0; i < keys.length; i++) {
+            DanmuRecord danmu = danmuRecords.get(i);
+            long position = positions.getOrDefault(danmu.getBv(), videos.length);
+            keys[i] = position << 32 | sortableBits(danmu.getTime());
+        }
+
+        this.danmuOrder = IndexSort.byKey(keys);
+        this.videoOrder = videos;
+        this.userOrder = users.join();
+    }
+
+    /**
+     * The bits of {@code f} as an unsigned int ordered like the float values.
+     */
+    private static long sortableBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        return (bits ^ (bits >> 31 | Integer.MIN_VALUE)) & 0xffffffffL;
+    }
+
+    /**
+     * The aggregates of the records, computed on first access.
+     */
+    public synchronized ImportAggregates getAggregates() {
+        if (aggregates == null) {
+            aggregates = new ImportAggregates(this);
+        }
+        return aggregates;
+    }
+}
@@ -0,0 +1,236 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Progress of a resumable import, kept in the {@code import_ledger} table.
+ * <p>
+ * A chunk is a fixed range of source records of one {@link ImportTable}. Its ledger row is inserted in the same
+ * transaction as its data rows, so the ledger lists exactly the chunks that are in the database. Rows are keyed by
+ * a fingerprint over the keys of every record, hence a rerun only skips chunks if it imports the same records.
+ * Each row also holds a {@linkplain #chunkHash hash} of the keys and fan-out of the chunk's records, which a rerun
+ * checks before skipping it.
+ * <p>
+ * The {@code danmu_id} blocks reserved for a dataset are kept in {@code import_ledger_ids}, so that a rerun numbers
+ * the missing danmus like the committed ones.
+ */
+@Component
+public class ImportLedger {
+
+    static final String LEDGER_TABLE = "import_ledger";
+
+    static final String IDS_TABLE = "import_ledger_ids";
+
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Fingerprints already computed, as hashing every key takes a pass over all records.
+     */
+    private final Map<ImportData, String> fingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Identifies a dataset by the keys of all its records, in list order, and whether it is loaded sorted.
+     */
+    public String fingerprint(ImportData data) {
+        return fingerprints.computeIfAbsent(data, ignored -> {
+            MessageDigest digest = sha256();
+            for (UserRecord user : data.getUserRecords()) {
+                updateUser(digest, user);
+            }
+            digest.update((byte) ';');
+            for (VideoRecord video : data.getVideoRecords()) {
+                updateVideo(digest, video);
+            }
+            digest.update((byte) ';');
+            for (DanmuRecord danmu : data.getDanmuRecords()) {
+                updateDanmu(digest, danmu);
+            }
+            // chunks are ranges of load positions, which sorting changes
+            digest.update((byte) (data.getUserOrder() == null ? 0 : 1));
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        });
+    }
+
+    /**
+     * Hashes the keys of the records at the load positions {@code [from, to)} of {@code table}, along with the
+     * number of rows each one fans out to, e.g. its follows for {@link ImportTable#FOLLOW}.
+     */
+    public String chunkHash(ImportData data, ImportTable table, int from, int to) {
+        MessageDigest digest = sha256();
+        for (int p = from; p < to; p++) {
+            switch (table) {
+                case USERS, FOLLOW, USER_STATS -> updateUser(digest, data.getUserRecords().get(data.userAt(p)));
+                case DANMU, DANMU_LIKE_BY -> updateDanmu(digest, data.getDanmuRecords().get(data.danmuAt(p)));
+                default -> updateVideo(digest, data.getVideoRecords().get(data.videoAt(p)));
+            }
+            updateLong(digest, table.rowCount(data, p));
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    /**
+     * The chunks already committed for the given dataset: the {@linkplain #chunkHash hash} of each chunk by its
+     * start offset.
+     */
+    public Map<ImportTable, Map<Integer, String>> completedChunks(String fingerprint) {
+        Map<ImportTable, Map<Integer, String>> completed = new EnumMap<>(ImportTable.class);
+        for (ImportTable table : ImportTable.values()) {
+            completed.put(table, new HashMap<>());
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + LEDGER_TABLE + " (fingerprint text NOT NULL, "
+                        + "tbl text NOT NULL, chunk_from int NOT NULL, chunk_to int NOT NULL, chunk_hash text, "
+                        + "committed_at timestamp NOT NULL DEFAULT now(), PRIMARY KEY (fingerprint, tbl, chunk_from))");
+                // ledgers created before chunks were hashed
+                stmt.execute("ALTER TABLE " + LEDGER_TABLE + " ADD COLUMN IF NOT EXISTS chunk_hash text");
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT tbl, chunk_from, chunk_hash FROM " + LEDGER_TABLE + " WHERE fingerprint = ?")) {
+                stmt.setString(1, fingerprint);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        completed.get(ImportTable.valueOf(rs.getString("tbl")))
+                                .put(rs.getInt("chunk_from"), rs.getString("chunk_hash"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return completed;
+    }
+
+    /**
+     * Marks a chunk as done, within the caller's transaction.
+     */
+    public void record(Connection conn, String fingerprint, ImportTable table, int from, int to, String chunkHash)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + LEDGER_TABLE
+                + " (fingerprint, tbl, chunk_from, chunk_to, chunk_hash) VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setString(1, fingerprint);
+            stmt.setString(2, table.name());
+            stmt.setInt(3, from);
+            stmt.setInt(4, to);
+            stmt.setString(5, chunkHash);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * The {@code danmu_id} blocks of the given dataset, taken from {@code reserve} and recorded on its first import.
+     */
+    public IdAllocator.Blocks danmuIds(String fingerprint, Supplier<IdAllocator.Blocks> reserve) {
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + IDS_TABLE
+                        + " (fingerprint text PRIMARY KEY, block_size int NOT NULL, block_ends bigint[] NOT NULL)");
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT block_size, block_ends FROM " + IDS_TABLE + " WHERE fingerprint = ?")) {
+                stmt.setString(1, fingerprint);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        Long[] ends = (Long[]) rs.getArray("block_ends").getArray();
+                        return new IdAllocator.Blocks(rs.getInt("block_size"),
+                                Arrays.stream(ends).mapToLong(Long::longValue).toArray());
+                    }
+                }
+            }
+            IdAllocator.Blocks blocks = reserve.get();
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO " + IDS_TABLE + " (fingerprint, block_size, block_ends) VALUES (?, ?, ?)")) {
+                stmt.setString(1, fingerprint);
+                stmt.setInt(2, blocks.getSize());
+                stmt.setArray(3, conn.createArrayOf("bigint",
+                        Arrays.stream(blocks.getEnds()).boxed().toArray()));
+                stmt.executeUpdate();
+            }
+            return blocks;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Forgets a dataset once it is fully imported.
+     */
+    public void clear(String fingerprint) {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            for (String table : new String[]{LEDGER_TABLE, IDS_TABLE}) {
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + table + " WHERE fingerprint = ?")) {
+                    stmt.setString(1, fingerprint);
+                    stmt.executeUpdate();
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void updateUser(MessageDigest digest, UserRecord user) {
+        updateLong(digest, user.getMid());
+    }
+
+    private static void updateVideo(MessageDigest digest, VideoRecord video) {
+        updateString(digest, video.getBv());
+    }
+
+    /**
+     * Danmus have no key of their own, so everything the loaded row is made of counts.
+     */
+    private static void updateDanmu(MessageDigest digest, DanmuRecord danmu) {
+        updateString(digest, danmu.getBv());
+        updateLong(digest, danmu.getMid());
+        updateLong(digest, Float.floatToIntBits(danmu.getTime()));
+        updateString(digest, danmu.getContent());
+        updateLong(digest, danmu.getPostTime() == null ? 0 : danmu.getPostTime().getTime());
+    }
+
+    private static void updateLong(MessageDigest digest, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+    }
+
+    private static void updateString(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // a terminator, so that adjacent strings cannot shift into each other
+        digest.update((byte) 0);
+    }
+}
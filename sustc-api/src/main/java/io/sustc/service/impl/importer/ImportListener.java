@@ -0,0 +1,15 @@
+package io.sustc.service.impl.importer;
+
+/**
+ * Notified by the {@link ImportScheduler} once an import has been committed, while its records are still in memory.
+ * Implementations are picked up as Spring beans.
+ */
+public interface ImportListener {
+
+    /**
+     * Called on the importing thread after every table is loaded. Exceptions are logged and do not fail the import.
+     * The record lists may have been {@linkplain ImportData#isReleased() released} by then, and always are after
+     * an {@linkplain ImportProperties#isAppend() appending} import, whose records are only part of the tables.
+     */
+    void onImport(ImportData data);
+}
@@ -0,0 +1,168 @@
+package io.sustc.service.impl.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Merges rows loaded into the {@link StagingTables} into an already populated database, for
+ * {@link ImportProperties#isAppend() appending} imports.
+ * <p>
+ * Every table is merged with one {@code INSERT ... SELECT ... ON CONFLICT DO NOTHING}, so where a staged row has
+ * the key of a row already present, the existing row wins: users and videos whose other fields changed keep their
+ * old values, and nothing is updated in place. The statement returns the rows it actually inserted to
+ * data-modifying CTEs, which add them to the {@code coin}, {@code view}, {@code likes} and {@code favorite}
+ * counters of {@code video} and to the {@link SummaryTables}. Nothing is recounted, so the merge costs in
+ * proportion to the staged rows only. New videos start with zero counters, their relation rows add up to the right
+ * counts like those of existing videos.
+ * <p>
+ * Danmus have no natural key in the schema, and the staged ones carry fresh {@code danmu_id}s, so they are matched
+ * on {@code (bv, user_mid, time, content)} instead: a staged danmu equal to one already present, or to an earlier
+ * staged one, is dropped, and its likes go to the danmu it matched.
+ * <p>
+ * All tables merge in one transaction, in dependency order, so a staged row referencing a user or video known
+ * neither to the database nor to the staged rows fails the whole merge.
+ */
+@Component
+@Slf4j
+public class ImportMerge {
+
+    /**
+     * The tables merged from staging; the summary tables are updated along with them instead.
+     */
+    public static final Set<ImportTable> MERGED_TABLES = EnumSet.of(ImportTable.USERS, ImportTable.FOLLOW,
+            ImportTable.VIDEO, ImportTable.THUMBS_UP, ImportTable.COIN, ImportTable.FAVORITE, ImportTable.VIEW,
+            ImportTable.DANMU, ImportTable.DANMU_LIKE_BY);
+
+    /**
+     * The counter columns of {@code video}, derived from its relation tables.
+     */
+    private static final Set<String> VIDEO_COUNTERS = Set.of("coin", "view", "likes", "favorite");
+
+    private static final String DANMU_IDS = "import_merge_danmu_ids";
+
+    /**
+     * Maps every staged {@code danmu_id} to the id of the danmu it is kept as: the lowest id among the existing
+     * danmus with the same natural key, else the lowest among the staged ones.
+     */
+    private static final String MAP_DANMU_IDS = "CREATE TEMP TABLE " + DANMU_IDS + " ON COMMIT DROP AS "
+            + "SELECT s.danmu_id AS staged_id, coalesce(d.danmu_id, "
+            + "min(s.danmu_id) OVER (PARTITION BY s.bv, s.user_mid, s.time, s.content)) AS danmu_id "
+            + "FROM " + StagingTables.nameOf(ImportTable.DANMU) + " s LEFT JOIN ("
+            + "SELECT bv, user_mid, time, content, min(danmu_id) AS danmu_id FROM danmu "
+            + "WHERE bv IN (SELECT bv FROM " + StagingTables.nameOf(ImportTable.DANMU) + ") "
+            + "GROUP BY bv, user_mid, time, content) d USING (bv, user_mid, time, content)";
+
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Merges every staged table into its target in a single transaction.
+     */
+    public void merge(ImportMetrics metrics) {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            for (ImportTable table : MERGED_TABLES) {
+                long tableStart = System.nanoTime();
+                if (table == ImportTable.DANMU) {
+                    stmt.execute(MAP_DANMU_IDS);
+                }
+                try (ResultSet rs = stmt.executeQuery(mergeSql(table))) {
+                    rs.next();
+                    metrics.recordMerge(table, rs.getLong(1), System.nanoTime() - tableStart);
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        log.info("Merged the staging tables in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * The statement merging the staged rows of {@code table}, which returns how many of them were new.
+     */
+    private static String mergeSql(ImportTable table) {
+        String columns = String.join(", ", table.getColumns());
+        String select = table == ImportTable.VIDEO
+                ? Arrays.stream(table.getColumns())
+                .map(column -> VIDEO_COUNTERS.contains(column) ? "0" : column)
+                .collect(Collectors.joining(", "))
+                : columns;
+        String insert = "INSERT INTO " + table.getTableName() + " (" + columns + ") SELECT " + select
+                + " FROM " + StagingTables.nameOf(table) + " ON CONFLICT DO NOTHING";
+        return switch (table) {
+            case USERS -> "WITH ins AS (" + insert + " RETURNING mid), "
+                    + "stats AS (INSERT INTO user_stats (mid) SELECT mid FROM ins ON CONFLICT DO NOTHING) "
+                    + "SELECT count(*) FROM ins";
+            case FOLLOW -> "WITH ins AS (" + insert + " RETURNING follower_mid, following_mid), "
+                    + "stats AS (INSERT INTO user_stats AS s (mid, follower_count, following_count) "
+                    + "SELECT mid, sum(followers), sum(followings) FROM ("
+                    + "SELECT following_mid AS mid, 1 AS followers, 0 AS followings FROM ins UNION ALL "
+                    + "SELECT follower_mid, 0, 1 FROM ins) e GROUP BY mid "
+                    + "ON CONFLICT (mid) DO UPDATE SET follower_count = s.follower_count + excluded.follower_count, "
+                    + "following_count = s.following_count + excluded.following_count) "
+                    + "SELECT count(*) FROM ins";
+            case VIDEO -> "WITH ins AS (" + insert + " RETURNING bv), "
+                    + "stats AS (INSERT INTO video_stats (bv) SELECT bv FROM ins ON CONFLICT DO NOTHING) "
+                    + "SELECT count(*) FROM ins";
+            case THUMBS_UP -> countVideoRows(insert, "likes");
+            case COIN -> countVideoRows(insert, "coin");
+            case FAVORITE -> countVideoRows(insert, "favorite");
+            case VIEW -> "WITH ins AS (" + insert + " RETURNING video_bv, last_watch_time_duration), "
+                    + "counters AS (UPDATE video v SET view = v.view + d.n "
+                    + "FROM (SELECT video_bv, count(*) AS n FROM ins GROUP BY video_bv) d WHERE v.bv = d.video_bv), "
+                    + "stats AS (INSERT INTO video_stats AS s (bv, view_count, view_time_sum, finished_view_count) "
+                    + "SELECT i.video_bv, count(*), sum(i.last_watch_time_duration), "
+                    + "count(*) FILTER (WHERE i.last_watch_time_duration >= v.duration) "
+                    + "FROM ins i JOIN video v ON v.bv = i.video_bv GROUP BY i.video_bv "
+                    + "ON CONFLICT (bv) DO UPDATE SET view_count = s.view_count + excluded.view_count, "
+                    + "view_time_sum = s.view_time_sum + excluded.view_time_sum, "
+                    + "finished_view_count = s.finished_view_count + excluded.finished_view_count) "
+                    + "SELECT count(*) FROM ins";
+            case DANMU -> "WITH ins AS (INSERT INTO danmu (" + columns + ") SELECT "
+                    + Arrays.stream(table.getColumns()).map(column -> "s." + column).collect(Collectors.joining(", "))
+                    + " FROM " + StagingTables.nameOf(table) + " s JOIN " + DANMU_IDS + " m "
+                    + "ON m.staged_id = s.danmu_id WHERE m.danmu_id = s.danmu_id "
+                    + "ON CONFLICT DO NOTHING RETURNING danmu.bv, danmu.time), "
+                    + "chunks AS (INSERT INTO video_danmu_chunk AS c (bv, chunk, danmu_count) "
+                    + "SELECT ins.bv, floor(ins.time / " + ImportAggregates.HOTSPOT_CHUNK_SECONDS + "), count(*) "
+                    + "FROM ins WHERE ins.time >= 0 GROUP BY 1, 2 "
+                    + "ON CONFLICT (bv, chunk) DO UPDATE SET danmu_count = c.danmu_count + excluded.danmu_count), "
+                    + "stats AS (INSERT INTO video_stats AS s (bv, danmu_count) "
+                    + "SELECT bv, count(*) FROM ins GROUP BY bv "
+                    + "ON CONFLICT (bv) DO UPDATE SET danmu_count = s.danmu_count + excluded.danmu_count) "
+                    + "SELECT count(*) FROM ins";
+            // likes of dropped danmus move to the danmu they matched, where they may already be
+            case DANMU_LIKE_BY -> "WITH ins AS (INSERT INTO " + table.getTableName() + " (danmu_id, mid) "
+                    + "SELECT DISTINCT m.danmu_id, l.mid FROM " + StagingTables.nameOf(table) + " l "
+                    + "JOIN " + DANMU_IDS + " m ON m.staged_id = l.danmu_id WHERE NOT EXISTS ("
+                    + "SELECT 1 FROM " + table.getTableName() + " x WHERE x.danmu_id = m.danmu_id AND x.mid = l.mid) "
+                    + "ON CONFLICT DO NOTHING RETURNING 1) SELECT count(*) FROM ins";
+            case USER_STATS, VIDEO_STATS, VIDEO_DANMU_CHUNK ->
+                    throw new IllegalArgumentException(table.getTableName() + " is not merged from staging");
+        };
+    }
+
+    /**
+     * Merges a table of {@code (video_BV, user_mid)} rows, adding the new ones to {@code counter} of their video.
+     */
+    private static String countVideoRows(String insert, String counter) {
+        return "WITH ins AS (" + insert + " RETURNING video_bv), "
+                + "counters AS (UPDATE video v SET " + counter + " = v." + counter + " + d.n "
+                + "FROM (SELECT video_bv, count(*) AS n FROM ins GROUP BY video_bv) d WHERE v.bv = d.video_bv) "
+                + "SELECT count(*) FROM ins";
+    }
+}
@@ -0,0 +1,320 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.ImportQueueReport;
+import io.sustc.dto.ImportReport;
+import io.sustc.dto.ImportTableReport;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows, bytes, flush latencies and wall time spent per {@link ImportTable} during one import.
+ * <p>
+ * A table loaded in several slices or chunks counts from the start of the first one to the end of the last one,
+ * so its throughput reflects the concurrency it was loaded with. The {@link PostImportMaintenance} of a table is
+ * tracked separately, along with when the table was ready relative to the start of the import.
+ * <p>
+ * Imports running through an {@link ImportPipeline} also report how its queues filled up, merged by queue name
+ * across the pipelines of one import.
+ */
+@Slf4j
+public class ImportMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Map<ImportTable, TableMetrics> tables = new EnumMap<>(ImportTable.class);
+
+    private final Map<String, QueueMetrics> queues = new LinkedHashMap<>();
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param allocatedBytes heap allocated by the writing thread meanwhile, see {@link #threadAllocatedBytes()}
+     */
+    synchronized void record(ImportTable table, String sink, RowWriter writer, long startNanos, long endNanos,
+                             long allocatedBytes) {
+        TableMetrics metrics = record(table, sink, writer.getRowCount(), writer.getByteCount(), startNanos, endNanos);
+        metrics.allocatedBytes += allocatedBytes;
+        metrics.flushLatencies.add(writer.getFlushLatencies());
+        if (writer instanceof JdbcBatchWriter jdbc) {
+            metrics.batchSize = jdbc.getBatchSize();
+        }
+    }
+
+    /**
+     * Records rows of {@code table} shipped by other means than a {@link RowWriter}.
+     */
+    synchronized TableMetrics record(ImportTable table, String sink, long rows, long bytes,
+                                     long startNanos, long endNanos) {
+        TableMetrics metrics = tables.computeIfAbsent(table, TableMetrics::new);
+        metrics.sink = sink;
+        metrics.rows += rows;
+        metrics.bytes += bytes;
+        if (metrics.endNanos == 0) {
+            metrics.startNanos = startNanos;
+        }
+        metrics.startNanos = Math.min(metrics.startNanos, startNanos);
+        metrics.endNanos = Math.max(metrics.endNanos, endNanos);
+        return metrics;
+    }
+
+    /**
+     * Adds to {@code table} flushes and allocations that were measured apart from its {@link RowWriter}s.
+     */
+    synchronized void recordFlushes(ImportTable table, LatencyHistogram flushLatencies, long allocatedBytes) {
+        TableMetrics metrics = tables.computeIfAbsent(table, TableMetrics::new);
+        metrics.flushLatencies.add(flushLatencies);
+        metrics.allocatedBytes += allocatedBytes;
+    }
+
+    /**
+     * Records that merging the staged rows of {@code table} inserted {@code rows} of them.
+     */
+    synchronized void recordMerge(ImportTable table, long rows, long nanos) {
+        TableMetrics metrics = tables.computeIfAbsent(table, TableMetrics::new);
+        metrics.mergedRows = rows;
+        metrics.mergeNanos = nanos;
+    }
+
+    /**
+     * Records that {@code bytes} encoded for {@code table} went through a spill file instead of the heap.
+     */
+    synchronized void recordSpill(ImportTable table, long bytes) {
+        tables.computeIfAbsent(table, TableMetrics::new).spilledBytes += bytes;
+    }
+
+    /**
+     * Records what {@code queue} went through, once its stages are done.
+     */
+    synchronized void recordQueue(StageQueue<?> queue) {
+        QueueMetrics metrics = queues.computeIfAbsent(queue.getName(), QueueMetrics::new);
+        metrics.capacity = Math.max(metrics.capacity, queue.getCapacity());
+        metrics.puts += queue.getPuts();
+        metrics.depthSum += queue.getDepthSum();
+        metrics.maxDepth = Math.max(metrics.maxDepth, queue.getMaxDepth());
+        metrics.putStallNanos += queue.getPutStallNanos();
+        metrics.takeStallNanos += queue.getTakeStallNanos();
+    }
+
+    /**
+     * Records how long loading {@code table} waited for a pooled connection.
+     */
+    synchronized void recordConnectionWait(ImportTable table, long nanos) {
+        tables.computeIfAbsent(table, TableMetrics::new).connectionWaitNanos += nanos;
+    }
+
+    /**
+     * Records the rows {@link ImportValidation} removed from each table.
+     */
+    synchronized void recordValidation(ImportValidation validation) {
+        for (ImportTable table : ImportTable.values()) {
+            long removed = validation.getRemoved(table);
+            if (removed > 0) {
+                tables.computeIfAbsent(table, TableMetrics::new).removedRows = removed;
+            }
+        }
+    }
+
+    /**
+     * Records that the post-import maintenance of {@code table} ran from {@code startNanos} to {@code endNanos}.
+     */
+    synchronized void recordMaintenance(ImportTable table, long startNanos, long endNanos) {
+        TableMetrics metrics = tables.computeIfAbsent(table, TableMetrics::new);
+        metrics.maintenanceNanos = endNanos - startNanos;
+        metrics.readyNanos = endNanos - this.startNanos;
+    }
+
+    /**
+     * Bytes allocated on the heap by the current thread so far, {@code 0} if the JVM does not track it.
+     */
+    static long threadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    public synchronized Map<ImportTable, TableMetrics> getTables() {
+        return Collections.unmodifiableMap(new EnumMap<>(tables));
+    }
+
+    /**
+     * The queues of the {@link ImportPipeline}, empty unless the import went through one.
+     */
+    public synchronized List<QueueMetrics> getQueues() {
+        return new ArrayList<>(queues.values());
+    }
+
+    /**
+     * A copy of the figures recorded so far, in the public form of the {@link io.sustc.service.ImportReportService}.
+     */
+    synchronized ImportReport toReport() {
+        List<ImportTableReport> tableReports = new ArrayList<>();
+        for (TableMetrics metrics : tables.values()) {
+            LatencyHistogram flushes = metrics.flushLatencies;
+            tableReports.add(ImportTableReport.builder()
+                    .table(metrics.table.getTableName())
+                    .sink(metrics.sink)
+                    .rows(metrics.rows)
+                    .removedRows(metrics.removedRows)
+                    .bytes(metrics.bytes)
+                    .elapsedNanos(metrics.endNanos - metrics.startNanos)
+                    .rowsPerSecond(metrics.getRowsPerSecond())
+                    .flushCount(flushes.getCount())
+                    .flushP50Nanos(flushes.percentileNanos(0.5))
+                    .flushP99Nanos(flushes.percentileNanos(0.99))
+                    .flushMaxNanos(flushes.getMaxNanos())
+                    .connectionWaitNanos(metrics.connectionWaitNanos)
+                    .allocatedBytesPerRow(metrics.getAllocatedBytesPerRow())
+                    .batchSize(metrics.batchSize)
+                    .spilledBytes(metrics.spilledBytes)
+                    .mergedRows(metrics.mergedRows)
+                    .mergeNanos(metrics.mergeNanos)
+                    .maintenanceNanos(metrics.maintenanceNanos)
+                    .readyNanos(metrics.readyNanos)
+                    .build());
+        }
+        List<ImportQueueReport> queueReports = new ArrayList<>();
+        for (QueueMetrics metrics : queues.values()) {
+            queueReports.add(ImportQueueReport.builder()
+                    .queue(metrics.name)
+                    .capacity(metrics.capacity)
+                    .units(metrics.puts)
+                    .meanDepth(metrics.getMeanDepth())
+                    .maxDepth(metrics.maxDepth)
+                    .putStallNanos(metrics.putStallNanos)
+                    .takeStallNanos(metrics.takeStallNanos)
+                    .build());
+        }
+        return new ImportReport(tableReports, queueReports);
+    }
+
+    synchronized void log() {
+        for (TableMetrics metrics : tables.values()) {
+            log.info("{} via {}: {} rows, {} KiB in {} ms ({} rows/s), {} flushes (p99 {} us){}, "
+                            + "{} B allocated per row, {} ms waiting for a connection{}{}",
+                    metrics.table.getTableName(), metrics.sink, metrics.rows, metrics.bytes / 1024,
+                    metrics.getElapsedMillis(), Math.round(metrics.getRowsPerSecond()),
+                    metrics.flushLatencies.getCount(), metrics.flushLatencies.percentileNanos(0.99) / 1000,
+                    metrics.batchSize > 0 ? " of " + metrics.batchSize + " rows" : "",
+                    Math.round(metrics.getAllocatedBytesPerRow()), metrics.connectionWaitNanos / 1_000_000,
+                    metrics.spilledBytes > 0 ? ", " + metrics.spilledBytes / 1024 + " KiB spilled to disk" : "",
+                    metrics.mergeNanos > 0
+                            ? ", " + metrics.mergedRows + " new rows merged in " + metrics.mergeNanos / 1_000_000 + " ms"
+                            : "");
+        }
+        for (QueueMetrics metrics : queues.values()) {
+            log.info("Queue {}: {} units, depth {} on average and {} at most of {}, "
+                            + "producers stalled {} ms, consumers stalled {} ms",
+                    metrics.name, metrics.puts, String.format("%.1f", metrics.getMeanDepth()), metrics.maxDepth,
+                    metrics.capacity, metrics.putStallNanos / 1_000_000, metrics.takeStallNanos / 1_000_000);
+        }
+    }
+
+    @Data
+    public static class TableMetrics {
+
+        private final ImportTable table;
+
+        private final LatencyHistogram flushLatencies = new LatencyHistogram();
+
+        private String sink;
+
+        private long rows;
+
+        private long bytes;
+
+        private long startNanos;
+
+        private long endNanos;
+
+        private long connectionWaitNanos;
+
+        /**
+         * The JDBC batch size the table ended with, {@code 0} for sinks that do not batch statements.
+         */
+        private int batchSize;
+
+        /**
+         * Rows dropped by {@link ImportValidation} before loading.
+         */
+        private long removedRows;
+
+        /**
+         * Heap allocated by the threads writing the rows, including decoding records on demand and the string form
+         * of non-integral floats in the text COPY format.
+         */
+        private long allocatedBytes;
+
+        /**
+         * Encoded bytes that exceeded the heap budget of an {@link ImportPipeline} and went through a file.
+         */
+        private long spilledBytes;
+
+        /**
+         * Staged rows that were not in the table yet, in {@linkplain ImportProperties#isAppend() append} mode.
+         */
+        private long mergedRows;
+
+        private long mergeNanos;
+
+        private long maintenanceNanos;
+
+        /**
+         * When the table was loaded and maintained, since the start of the import; {@code 0} without maintenance.
+         */
+        private long readyNanos;
+
+        public long getElapsedMillis() {
+            return (endNanos - startNanos) / 1_000_000;
+        }
+
+        public double getAllocatedBytesPerRow() {
+            return rows > 0 ? (double) allocatedBytes / rows : 0;
+        }
+
+        public double getRowsPerSecond() {
+            long nanos = endNanos - startNanos;
+            return nanos > 0 ? rows * 1e9 / nanos : 0;
+        }
+    }
+
+    @Data
+    public static class QueueMetrics {
+
+        private final String name;
+
+        private int capacity;
+
+        private long puts;
+
+        private long depthSum;
+
+        private long maxDepth;
+
+        /**
+         * Time producers spent blocked on a full queue, summed over the producing threads.
+         */
+        private long putStallNanos;
+
+        /**
+         * Time consumers spent blocked on an empty queue, summed over the consuming threads.
+         */
+        private long takeStallNanos;
+
+        /**
+         * The mean number of queued units right after a put.
+         */
+        public double getMeanDepth() {
+            return puts > 0 ? (double) depthSum / puts : 0;
+        }
+    }
+}
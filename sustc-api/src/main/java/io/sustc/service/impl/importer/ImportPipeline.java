@@ -0,0 +1,467 @@
+package io.sustc.service.impl.importer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Loads tables through three stages joined by bounded {@link StageQueue}s:
+ * <ol>
+ *   <li>one thread splits the records of every table into units of {@link ImportProperties#getPipelineUnitSize()}
+ *   records and queues them on {@code records};</li>
+ *   <li>{@link ImportProperties#getPipelineEncoders()} threads encode each unit into a complete COPY stream held in
+ *   pooled buffers and queue it on {@code encoded};</li>
+ *   <li>{@link ImportProperties#getPipelineWriters()} threads, each holding one connection, send every encoded unit
+ *   with its own {@code COPY} and commit once the input runs dry.</li>
+ * </ol>
+ * As both queues hold at most {@link ImportProperties#getPipelineQueueCapacity()} items, a database that cannot keep up
+ * blocks the encoders instead of letting encoded units pile up on the heap. How full the queues got and how long each
+ * side waited on them ends up in the {@link ImportMetrics}, to tell which stage needs more threads.
+ * <p>
+ * With a {@link ImportProperties#getHeapBudget() heap budget}, units also end after as many rows as records, so that
+ * a window of videos with long {@code viewerMids} or danmus with long {@code likedBy} stays as small as the others.
+ * Encoded bytes beyond the budget are written to a temporary file instead, which the writer streams from.
+ * <p>
+ * Units are shipped with COPY, in binary format for the {@link BinaryCopySink}, so {@link ImportSinks} only lets
+ * the pipeline run with the {@linkplain ImportSinks#PIPELINE_SINKS COPY sinks}. The {@link NullSink} keeps encoding
+ * everything but discards the units in the writers.
+ */
+@Slf4j
+class ImportPipeline {
+
+    private static final Unit END_OF_RECORDS = new Unit(null, 0, 0, null);
+
+    private static final Encoded END_OF_ENCODED = new Encoded(null, null, 0, 0, 0, 0);
+
+    /**
+     * Room for the row that takes a COPY writer past its buffer size, on top of that size, in the arrays that hold
+     * encoded units.
+     */
+    private static final int ROW_SLACK = 1024;
+
+    private final DataSource dataSource;
+
+    private final ImportProperties properties;
+
+    private final ImportSinks sinks;
+
+    private final CopyBufferPool bufferPool;
+
+    private final ImportData data;
+
+    private final Function<ImportTable, String> relation;
+
+    private final ImportMetrics metrics;
+
+    /**
+     * Called once every unit of a table is encoded, from then on its records are not needed anymore.
+     */
+    private final Consumer<ImportTable> onEncoded;
+
+    /**
+     * Encoded bytes the queued and in-flight units may hold on the heap, {@code 0} for no limit.
+     */
+    private final long heapBudget;
+
+    private final AtomicLong heapBytes = new AtomicLong();
+
+    ImportPipeline(DataSource dataSource, ImportProperties properties, ImportSinks sinks, CopyBufferPool bufferPool,
+                   ImportData data, Function<ImportTable, String> relation, ImportMetrics metrics,
+                   Consumer<ImportTable> onEncoded) {
+        this.dataSource = dataSource;
+        this.properties = properties;
+        this.sinks = sinks;
+        this.bufferPool = bufferPool;
+        this.data = data;
+        this.relation = relation;
+        this.metrics = metrics;
+        this.onEncoded = onEncoded;
+        this.heapBudget = properties.getHeapBudget() == null ? 0 : properties.getHeapBudget().toBytes();
+    }
+
+    /**
+     * Loads {@code tables} concurrently and commits them. On failure, every writer rolls back what it has not
+     * committed yet, but writers that already finished keep their rows.
+     */
+    void load(List<ImportTable> tables) {
+        int encoders = Math.max(1, properties.getPipelineEncoders());
+        int writers = Math.max(1, properties.getPipelineWriters());
+        StageQueue<Unit> records = new StageQueue<>("records", properties.getPipelineQueueCapacity());
+        StageQueue<Encoded> encoded = new StageQueue<>("encoded", properties.getPipelineQueueCapacity());
+        AtomicInteger runningEncoders = new AtomicInteger(encoders);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(1 + encoders + writers);
+        List<CompletableFuture<Void>> stages = new ArrayList<>();
+        stages.add(CompletableFuture.runAsync(unchecked(() -> {
+            dispatch(tables, records);
+            for (int i = 0; i < encoders; i++) {
+                records.put(END_OF_RECORDS);
+            }
+        }), executor));
+        for (int i = 0; i < encoders; i++) {
+            stages.add(CompletableFuture.runAsync(unchecked(() -> {
+                encode(records, encoded);
+                // the last encoder out tells the writers
+                if (runningEncoders.decrementAndGet() == 0) {
+                    for (int j = 0; j < writers; j++) {
+                        encoded.put(END_OF_ENCODED);
+                    }
+                }
+            }), executor));
+        }
+        for (int i = 0; i < writers; i++) {
+            stages.add(CompletableFuture.runAsync(unchecked(() -> write(encoded)), executor));
+        }
+        for (CompletableFuture<Void> stage : stages) {
+            stage.whenComplete((ignored, e) -> {
+                // interrupt the other stages, which may be blocked on a queue nobody serves anymore
+                if (e != null && failure.compareAndSet(null, e instanceof CompletionException ? e.getCause() : e)) {
+                    executor.shutdownNow();
+                }
+            });
+        }
+
+        try {
+            CompletableFuture.allOf(stages.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            discardQueued(executor, encoded);
+            Throwable cause = failure.get() != null ? failure.get() : e.getCause();
+            throw cause instanceof RuntimeException runtime ? runtime : new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+            metrics.recordQueue(records);
+            metrics.recordQueue(encoded);
+        }
+    }
+
+    private void dispatch(List<ImportTable> tables, StageQueue<Unit> records) throws InterruptedException {
+        int unitSize = Math.max(1, properties.getPipelineUnitSize());
+        boolean windowed = heapBudget > 0;
+        for (ImportTable table : tables) {
+            int count = table.recordCount(data);
+            List<Unit> units = new ArrayList<>();
+            AtomicInteger remaining = new AtomicInteger();
+            for (int from = 0, to; from < count; from = to) {
+                long rows = 0;
+                to = from;
+                // a unit takes at least one record, however many rows it has
+                do {
+                    rows += windowed ? table.rowCount(data, to) : 0;
+                    to++;
+                } while (to < count && to - from < unitSize && rows < unitSize);
+                units.add(new Unit(table, from, to, remaining));
+            }
+            remaining.set(units.size());
+            if (units.isEmpty()) {
+                onEncoded.accept(table);
+            }
+            for (Unit unit : units) {
+                records.put(unit);
+            }
+        }
+    }
+
+    private void encode(StageQueue<Unit> records, StageQueue<Encoded> encoded) throws Exception {
+        for (Unit unit = records.take(); unit != END_OF_RECORDS; unit = records.take()) {
+            long start = System.nanoTime();
+            long allocated = ImportMetrics.threadAllocatedBytes();
+            ChunkCollector chunks = new ChunkCollector();
+            try (RowWriter writer = isBinary(unit.table)
+                    ? new BinaryCopyWriter(chunks, bufferPool, unit.table, properties.getCopyBufferSize())
+                    : new TextCopyWriter(chunks, bufferPool, properties.getCopyBufferSize())) {
+                unit.table.write(data, unit.from, unit.to, writer);
+                writer.finish();
+                encoded.put(new Encoded(unit.table, chunks, writer.getRowCount(), writer.getByteCount(),
+                        start, ImportMetrics.threadAllocatedBytes() - allocated));
+            } catch (Exception e) {
+                chunks.release();
+                throw e;
+            }
+            if (unit.remaining.decrementAndGet() == 0) {
+                onEncoded.accept(unit.table);
+            }
+        }
+    }
+
+    private void write(StageQueue<Encoded> encoded) throws Exception {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            for (Encoded unit = encoded.take(); unit != END_OF_ENCODED; unit = encoded.take()) {
+                send(conn, unit);
+            }
+            conn.commit();
+        }
+    }
+
+    private void send(Connection conn, Encoded unit) throws SQLException {
+        ImportSink sink = sinks.forTable(unit.table);
+        CopyTarget target = NullSink.NAME.equals(sink.getName())
+                ? CopyTarget.discard()
+                : CopyTarget.copyIn(conn, isBinary(unit.table)
+                ? unit.table.binaryCopySql(relation.apply(unit.table))
+                : unit.table.copySql(relation.apply(unit.table)));
+        LatencyHistogram flushes = new LatencyHistogram();
+        try {
+            unit.chunks.sendTo(target, flushes);
+            long start = System.nanoTime();
+            target.end();
+            flushes.record(System.nanoTime() - start);
+        } finally {
+            target.cancel();
+            unit.chunks.release();
+        }
+        String sinkName = isBinary(unit.table) ? BinaryCopySink.NAME : TextCopySink.NAME;
+        metrics.record(unit.table, NullSink.NAME.equals(sink.getName()) ? NullSink.NAME : sinkName,
+                unit.rows, unit.bytes, unit.startNanos, System.nanoTime());
+        metrics.recordFlushes(unit.table, flushes, unit.allocatedBytes);
+        if (unit.chunks.spilledBytes > 0) {
+            metrics.recordSpill(unit.table, unit.chunks.spilledBytes);
+        }
+    }
+
+    /**
+     * Releases the units left queued by a failed load, once its stages stopped, so that no spill file outlives it.
+     */
+    private void discardQueued(ExecutorService executor, StageQueue<Encoded> encoded) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Import pipeline stages did not stop, leaving their queued units behind");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Encoded unit = encoded.poll(); unit != null; unit = encoded.poll()) {
+            if (unit != END_OF_ENCODED) {
+                unit.chunks.release();
+            }
+        }
+    }
+
+    private boolean isBinary(ImportTable table) {
+        String sink = sinks.forTable(table).getName();
+        return BinaryCopySink.NAME.equals(sink) || NullSink.NAME.equals(sink) && properties.isNullSinkBinary();
+    }
+
+    /**
+     * Lets a stage throw, wrapping checked exceptions as the {@link Runnable}s of the executor cannot.
+     */
+    private static Runnable unchecked(Stage stage) {
+        return () -> {
+            try {
+                stage.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    private interface Stage {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * The records {@code [from, to)} of {@code table}.
+     */
+    private static class Unit {
+
+        private final ImportTable table;
+
+        private final int from;
+
+        private final int to;
+
+        /**
+         * The units of the table not encoded yet, shared by all of them.
+         */
+        private final AtomicInteger remaining;
+
+        Unit(ImportTable table, int from, int to, AtomicInteger remaining) {
+            this.table = table;
+            this.from = from;
+            this.to = to;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * A unit encoded as one complete COPY stream, with what encoding it took.
+     */
+    private static class Encoded {
+
+        private final ImportTable table;
+
+        private final ChunkCollector chunks;
+
+        private final long rows;
+
+        private final long bytes;
+
+        private final long startNanos;
+
+        private final long allocatedBytes;
+
+        Encoded(ImportTable table, ChunkCollector chunks, long rows, long bytes, long startNanos,
+                long allocatedBytes) {
+            this.table = table;
+            this.chunks = chunks;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.startNanos = startNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static class Chunk {
+
+        private final byte[] buf;
+
+        private final int length;
+
+        Chunk(byte[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Keeps the bytes a COPY writer flushes in pooled arrays instead of sending them, or in a spill file once the
+     * heap budget is used up. The budget counts the arrays, not the bytes in them. Once a unit spills, the rest of it
+     * follows into the file to keep the stream in order.
+     */
+    private class ChunkCollector implements CopyTarget {
+
+        private final List<Chunk> chunks = new ArrayList<>();
+
+        private long heldBytes;
+
+        private FileChannel spill;
+
+        private long spilledBytes;
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            // a writer flushes once past the buffer size, so a flush overshoots it by about one row; taking arrays
+            // of a common size keeps the short last flush of a unit from handing an undersized array to the pool
+            int capacity = Math.max(len, properties.getCopyBufferSize() + ROW_SLACK);
+            if (spill == null && reserve(capacity)) {
+                byte[] copy = bufferPool.acquire(capacity);
+                System.arraycopy(buf, off, copy, 0, len);
+                chunks.add(new Chunk(copy, len));
+                heldBytes += capacity;
+                return;
+            }
+            try {
+                if (spill == null) {
+                    spill = openSpill();
+                }
+                ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+                while (src.hasRemaining()) {
+                    spill.write(src);
+                }
+                spilledBytes += len;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void end() {
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        /**
+         * Writes the collected bytes to {@code target} in order, timing each write.
+         */
+        void sendTo(CopyTarget target, LatencyHistogram flushes) throws SQLException {
+            for (Chunk chunk : chunks) {
+                long start = System.nanoTime();
+                target.write(chunk.buf, 0, chunk.length);
+                flushes.record(System.nanoTime() - start);
+            }
+            if (spill == null) {
+                return;
+            }
+            byte[] buf = bufferPool.acquire(properties.getCopyBufferSize());
+            try {
+                for (long position = 0; position < spilledBytes; ) {
+                    int n = spill.read(ByteBuffer.wrap(buf), position);
+                    long start = System.nanoTime();
+                    target.write(buf, 0, n);
+                    flushes.record(System.nanoTime() - start);
+                    position += n;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                bufferPool.release(buf);
+            }
+        }
+
+        /**
+         * Hands the arrays back to the pool and deletes the spill file.
+         */
+        void release() {
+            chunks.forEach(chunk -> bufferPool.release(chunk.buf));
+            chunks.clear();
+            heapBytes.addAndGet(-heldBytes);
+            heldBytes = 0;
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    log.warn("Failed to delete an import spill file", e);
+                }
+                spill = null;
+            }
+        }
+
+        private boolean reserve(int len) {
+            if (heapBytes.addAndGet(len) <= heapBudget || heapBudget == 0) {
+                return true;
+            }
+            heapBytes.addAndGet(-len);
+            return false;
+        }
+
+        private FileChannel openSpill() throws IOException {
+            Path dir = properties.getSpillDirectory() != null
+                    ? Files.createDirectories(Paths.get(properties.getSpillDirectory()))
+                    : Paths.get(System.getProperty("java.io.tmpdir"));
+            Path file = Files.createTempFile(dir, "sustc-import-", ".copy");
+            return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+    }
+}
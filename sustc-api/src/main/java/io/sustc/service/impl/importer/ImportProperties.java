@@ -0,0 +1,208 @@
+package io.sustc.service.impl.importer;
+
+import lombok.Data;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tuning knobs of {@link io.sustc.service.DatabaseService#importData}, bound from the {@code import} section
+ * of {@code application.yml}.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "import")
+@Data
+public class ImportProperties implements InitializingBean {
+
+    /**
+     * Name of the {@link ImportSink} shipping rows to the database, unless overridden in {@code tableSinks}.
+     */
+    private String sink = JdbcBatchSink.NAME;
+
+    /**
+     * Per-table {@link ImportSink} overrides, e.g. {@code view: binary-copy}.
+     */
+    private Map<ImportTable, String> tableSinks = new EnumMap<>(ImportTable.class);
+
+    /**
+     * Number of tables loaded concurrently, each on its own pooled connection.
+     * With {@code 1}, the whole import runs in a single transaction.
+     * Should not exceed the connection pool size ({@code spring.datasource.hikari.maximum-pool-size}).
+     */
+    private int parallelism = 1;
+
+    /**
+     * Tables whose records are split into {@code shards} slices loaded concurrently,
+     * each on its own connection and thread. Only effective when {@code parallelism} is above {@code 1}.
+     */
+    private Set<ImportTable> shardedTables = EnumSet.of(ImportTable.VIEW, ImportTable.DANMU, ImportTable.DANMU_LIKE_BY);
+
+    /**
+     * Number of slices a sharded table is split into.
+     */
+    private int shards = 4;
+
+    /**
+     * Whether to drop the secondary indexes and foreign keys of the import tables during the load and
+     * rebuild them afterwards, see {@link ConstraintDeferral}. Cannot be combined with {@code resumable}.
+     */
+    private boolean deferConstraints = false;
+
+    /**
+     * Whether to load into {@code UNLOGGED} staging tables first and copy them into the real tables in a single
+     * transaction, see {@link StagingTables}.
+     */
+    private boolean staging = false;
+
+    /**
+     * Whether to load through an {@link ImportPipeline}, with records encoded on {@code pipelineEncoders} threads
+     * and sent over {@code pipelineWriters} connections. Ignored in resumable mode. Every table must use a COPY
+     * sink or the {@code null} one.
+     */
+    private boolean pipeline = false;
+
+    private int pipelineEncoders = 2;
+
+    private int pipelineWriters = 4;
+
+    /**
+     * Number of units each queue of the pipeline holds before blocking the stage feeding it.
+     */
+    private int pipelineQueueCapacity = 16;
+
+    /**
+     * Number of source records per unit of work passed down the pipeline, see also {@code heapBudget}.
+     */
+    private int pipelineUnitSize = 1000;
+
+    /**
+     * Heap the import may fill beyond the records themselves, {@code null} for no limit. When set, the records of
+     * each table are {@linkplain ImportData#release(ImportTable) released} once it is loaded, units of the
+     * {@link ImportPipeline} also end after {@code pipelineUnitSize} rows, and encoded units beyond the budget are
+     * spilled to {@code spillDirectory}.
+     */
+    private DataSize heapBudget;
+
+    /**
+     * Where the {@link ImportPipeline} spills encoded units to, {@code null} for the system's temporary directory.
+     */
+    private String spillDirectory;
+
+    /**
+     * Whether to commit in chunks of {@code chunkSize} source records and record them in the {@link ImportLedger},
+     * so that a failed import can be resumed by running it again with the same records. Cannot be combined with
+     * {@code deferConstraints}.
+     */
+    private boolean resumable = false;
+
+    /**
+     * Number of source records per committed chunk in resumable mode.
+     */
+    private int chunkSize = 10_000;
+
+    /**
+     * Whether to add the records to those already in the database instead of assuming it is empty: they are loaded
+     * into {@link StagingTables} and merged by {@link ImportMerge}, skipping rows that are already present, where the
+     * existing row wins. Danmus are matched on their bv, sender, time and content. Resumability does
+     * not apply, and validation cannot be combined with it.
+     */
+    private boolean append = false;
+
+    /**
+     * Whether to remove duplicate and dangling records before loading, see {@link ImportValidation}. Cannot be
+     * combined with {@code heapBudget}.
+     */
+    private boolean validate = false;
+
+    /**
+     * Whether to sort the records by the key their rows are looked up by before loading them,
+     * see {@link ImportData#sortByAccessKey()}.
+     */
+    private boolean presort = false;
+
+    /**
+     * How {@link io.sustc.service.DatabaseService#truncate()} empties the database, see {@link DatabaseReset}.
+     */
+    private DatabaseReset.Mode reset = DatabaseReset.Mode.TRUNCATE;
+
+    /**
+     * The pristine database cloned by {@link DatabaseReset.Mode#TEMPLATE} resets.
+     */
+    private String resetTemplate = "sustc_template";
+
+    /**
+     * The database {@link DatabaseReset.Mode#TEMPLATE} resets connect to while re-creating the pool's database.
+     */
+    private String resetMaintenanceDatabase = "postgres";
+
+    /**
+     * Number of ids the {@link IdAllocator} reserves per round trip. Only applies to sequences it creates.
+     */
+    private int idBlockSize = 1000;
+
+    /**
+     * Whether to {@code ANALYZE} every table once loaded, see {@link PostImportMaintenance}.
+     */
+    private boolean analyze = true;
+
+    /**
+     * Whether to also {@code VACUUM (FREEZE)} every table once loaded, see {@link PostImportMaintenance}.
+     */
+    private boolean vacuum = false;
+
+    /**
+     * Number of rows per {@code executeBatch} of the {@link JdbcBatchSink}, or the size to start from when
+     * {@code adaptiveBatchSize} is set.
+     */
+    private int batchSize = 100;
+
+    /**
+     * Whether the {@link JdbcBatchSink} tunes the batch size of each table at runtime within
+     * [{@code minBatchSize}, {@code maxBatchSize}], see {@link BatchSizeController}.
+     */
+    private boolean adaptiveBatchSize = false;
+
+    private int minBatchSize = 16;
+
+    private int maxBatchSize = 4096;
+
+    /**
+     * Number of rows per statement of the {@link UnnestSink}.
+     */
+    private int unnestBatchSize = 5000;
+
+    /**
+     * Size in bytes of the encoded chunk handed to the COPY stream at once.
+     */
+    private int copyBufferSize = 1 << 16;
+
+    /**
+     * Whether the {@link NullSink} encodes rows in COPY's binary format rather than its text format.
+     */
+    private boolean nullSinkBinary = false;
+
+    /**
+     * Refuses combinations of settings that cannot work together, once they are bound on startup.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (validate && heapBudget != null) {
+            // the validated records are held in lists of their own, which cannot be released table by table
+            throw new IllegalStateException("import.validate cannot be combined with import.heap-budget");
+        }
+        if (validate && append) {
+            // references to rows already in the database would look dangling
+            throw new IllegalStateException("import.validate cannot be combined with import.append");
+        }
+        if (resumable && deferConstraints) {
+            // a failed deferred load is truncated to restore the foreign keys, which would undo committed chunks
+            throw new IllegalStateException("import.resumable cannot be combined with import.defer-constraints");
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.ImportReport;
+import io.sustc.service.ImportReportService;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Loads the {@link ImportTable}s following their dependency graph.
+ * <p>
+ * Each table is loaded and committed on its own pooled connection as soon as all tables it
+ * {@linkplain ImportTable#getDependencies() depends on} are committed, so independent tables
+ * (e.g. {@code follow} and {@code video}, or the four video relations) load concurrently.
+ * The records of the {@linkplain ImportProperties#getShardedTables() sharded tables} are further split into
+ * slices that load concurrently as well.
+ * <p>
+ * If any table or slice fails, everything already committed is truncated, so the import as a whole either
+ * succeeds or leaves the database empty as before.
+ * <p>
+ * With {@link ImportProperties#isDeferConstraints()}, secondary indexes and foreign keys are dropped for the
+ * duration of the load by {@link ConstraintDeferral}, all tables load at once, and the original schema is
+ * restored whether or not the load succeeds.
+ * <p>
+ * With {@link ImportProperties#isStaging()}, the rows are first loaded into {@link StagingTables} and then
+ * switched into the real tables in one transaction.
+ * <p>
+ * With {@link ImportProperties#isPipeline()}, the tables load through an {@link ImportPipeline} instead, which
+ * encodes and sends the rows on separate threads joined by bounded queues.
+ * <p>
+ * With a {@link ImportProperties#getHeapBudget()}, the records of each table are released as soon as it is loaded,
+ * and the {@link ImportListener}s get empty record lists.
+ * <p>
+ * With {@link ImportProperties#isResumable()}, the records are committed in chunks tracked by the
+ * {@link ImportLedger}. A failed import keeps its committed chunks, and rerunning it with the same records
+ * only loads the missing ones.
+ * <p>
+ * With {@link ImportProperties#isAppend()}, the records are always loaded into the staging tables and then
+ * {@link ImportMerge merged} into a database that may already hold data. Constraints are not deferred, the load
+ * is not resumable, and the maintenance does not run, as the merged delta is meant to be small next to the data
+ * already there. Validation is refused, as it would take references to rows already in the database for dangling
+ * ones. The listeners are notified without records, since the delta alone does not describe the tables.
+ * <p>
+ * With {@link ImportProperties#isValidate()}, records that would violate a constraint are removed by
+ * {@link ImportValidation} before anything is loaded. It cannot be combined with a heap budget.
+ * <p>
+ * Danmus are numbered from blocks of the {@link IdAllocator}, which is moved past the imported {@code mid}s
+ * afterwards.
+ * <p>
+ * Every table is shipped by the {@link ImportSink} {@link ImportSinks} resolves for it, and what each one
+ * achieved is logged and kept as {@link #getLastMetrics()}, which the {@link #getLastImportReport() report} exposes
+ * outside the importer. Once everything is committed, the tables go through
+ * {@link PostImportMaintenance} and then the {@link ImportListener}s get to see the records.
+ */
+@Component
+@Slf4j
+public class ImportScheduler implements ImportReportService {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ImportProperties properties;
+
+    @Autowired
+    private ConstraintDeferral constraintDeferral;
+
+    @Autowired
+    private StagingTables stagingTables;
+
+    @Autowired
+    private ImportLedger ledger;
+
+    @Autowired
+    private ImportSinks sinks;
+
+    @Autowired
+    private SummaryTables summaryTables;
+
+    @Autowired
+    private PostImportMaintenance maintenance;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private CopyBufferPool bufferPool;
+
+    @Autowired
+    private ImportMerge merge;
+
+    @Autowired
+    private ObjectProvider<ImportListener> listeners;
+
+    /**
+     * The metrics of the last import, {@code null} before the first one.
+     */
+    @Getter
+    private volatile ImportMetrics lastMetrics;
+
+    @Override
+    public ImportReport getLastImportReport() {
+        ImportMetrics metrics = lastMetrics;
+        return metrics == null ? null : metrics.toReport();
+    }
+
+    public void run(ImportData data) {
+        if (properties.isAppend()) {
+            append(data);
+            return;
+        }
+        ImportMetrics metrics = new ImportMetrics();
+        lastMetrics = metrics;
+        summaryTables.prepare();
+        if (properties.isValidate()) {
+            metrics.recordValidation(ImportValidation.run(data));
+        }
+        if (properties.isPresort()) {
+            long start = System.nanoTime();
+            data.sortByAccessKey();
+            log.info("Sorted records by access key in {} ms", (System.nanoTime() - start) / 1_000_000);
+        }
+        if (properties.getHeapBudget() != null) {
+            // the records are released table by table, while the summary tables need all of them
+            data.getAggregates();
+        }
+        data.assignDanmuIds(() -> {
+            Supplier<IdAllocator.Blocks> reserve = () ->
+                    idAllocator.reserve(IdAllocator.Sequence.DANMU_ID, data.getDanmuRecords().size());
+            // a resumed import has to reuse the ids its committed chunks were loaded with
+            return properties.isResumable() ? ledger.danmuIds(ledger.fingerprint(data), reserve) : reserve.get();
+        });
+        try {
+            runDeferred(data, metrics);
+            idAllocator.advancePastTables();
+        } finally {
+            summaryTables.attachTriggers();
+            metrics.log();
+        }
+        notifyListeners(data);
+    }
+
+    /**
+     * Hands {@code data} to every {@link ImportListener}, once the tables it was loaded into are committed.
+     */
+    void notifyListeners(ImportData data) {
+        listeners.orderedStream().forEach(listener -> {
+            try {
+                listener.onImport(data);
+            } catch (RuntimeException e) {
+                log.error("Import listener {} failed", listener.getClass().getSimpleName(), e);
+            }
+        });
+    }
+
+    /**
+     * Adds the records to a populated database through the staging tables, see {@link ImportMerge}. The summary
+     * triggers are detached meanwhile, as the merge updates the summary tables itself.
+     */
+    private void append(ImportData data) {
+        ImportMetrics metrics = new ImportMetrics();
+        lastMetrics = metrics;
+        if (properties.isPresort()) {
+            long start = System.nanoTime();
+            data.sortByAccessKey();
+            log.info("Sorted records by access key in {} ms", (System.nanoTime() - start) / 1_000_000);
+        }
+        data.assignDanmuIds(() -> idAllocator.reserve(IdAllocator.Sequence.DANMU_ID, data.getDanmuRecords().size()));
+        summaryTables.prepare();
+        try {
+            stagingTables.create();
+            try {
+                new Load(data, false, StagingTables::nameOf, null, metrics, ImportMerge.MERGED_TABLES).run();
+                merge.merge(metrics);
+            } finally {
+                stagingTables.drop();
+            }
+            idAllocator.advancePastTables();
+        } finally {
+            summaryTables.attachTriggers();
+            metrics.log();
+        }
+        // the listeners have to read the merged tables back, the records only hold what was added
+        notifyListeners(ImportData.unavailable());
+    }
+
+    private void runDeferred(ImportData data, ImportMetrics metrics) {
+        if (!properties.isDeferConstraints()) {
+            loadAll(data, true, metrics);
+            maintenance.run(Collections.emptyList(), metrics);
+            return;
+        }
+
+        List<ConstraintDeferral.DeferredObject> deferred = constraintDeferral.defer();
+        try {
+            // without foreign keys the tables no longer need to wait for each other
+            loadAll(data, false, metrics);
+            // builds the indexes table by table, restoring below then only re-adds the foreign keys
+            maintenance.run(deferred, metrics);
+        } catch (RuntimeException e) {
+            try {
+                constraintDeferral.restore(deferred);
+            } catch (RuntimeException restoreFailure) {
+                // a partial load may violate a foreign key, which stays NOT VALID until the tables are emptied
+                e.addSuppressed(restoreFailure);
+                truncate(ImportTable::getTableName);
+                try {
+                    constraintDeferral.validate(deferred);
+                } catch (RuntimeException validateFailure) {
+                    e.addSuppressed(validateFailure);
+                }
+            }
+            throw e;
+        }
+        try {
+            constraintDeferral.restore(deferred);
+        } catch (RuntimeException e) {
+            log.error("Imported data violates a foreign key, truncating the loaded tables");
+            truncate(ImportTable::getTableName);
+            constraintDeferral.validate(deferred);
+            throw e;
+        }
+    }
+
+    private void loadAll(ImportData data, boolean ordered, ImportMetrics metrics) {
+        if (properties.isResumable()) {
+            if (properties.isStaging()) {
+                log.warn("Staging tables do not survive a failed import, loading resumably into the tables directly");
+            }
+            new Load(data, ordered, ImportTable::getTableName, ledger.fingerprint(data), metrics).run();
+            return;
+        }
+        if (!properties.isStaging()) {
+            new Load(data, ordered, ImportTable::getTableName, null, metrics).run();
+            return;
+        }
+
+        stagingTables.create();
+        try {
+            // staging tables have no foreign keys
+            new Load(data, false, StagingTables::nameOf, null, metrics).run();
+            stagingTables.switchIn();
+        } finally {
+            stagingTables.drop();
+        }
+    }
+
+    /**
+     * Empties the relations every table was loaded into.
+     */
+    private void truncate(Function<ImportTable, String> relation) {
+        String tables = Arrays.stream(ImportTable.values())
+                .map(relation)
+                .collect(Collectors.joining(", "));
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("TRUNCATE " + tables + " CASCADE");
+        } catch (SQLException e) {
+            log.error("Failed to truncate {}", tables, e);
+        }
+    }
+
+    /**
+     * One pass loading every table, or the given ones, into the relations given by {@code relation}.
+     */
+    private class Load {
+
+        private final ImportData data;
+
+        private final boolean ordered;
+
+        private final Function<ImportTable, String> relation;
+
+        /**
+         * The ledger key when loading resumably, {@code null} otherwise.
+         */
+        private final String fingerprint;
+
+        private final Map<ImportTable, Map<Integer, String>> completedChunks;
+
+        private final ImportMetrics metrics;
+
+        private final Set<ImportTable> tables;
+
+        Load(ImportData data, boolean ordered, Function<ImportTable, String> relation, String fingerprint,
+             ImportMetrics metrics) {
+            this(data, ordered, relation, fingerprint, metrics, EnumSet.allOf(ImportTable.class));
+        }
+
+        /**
+         * @param tables the tables to load, which must include every table they depend on when {@code ordered}
+         */
+        Load(ImportData data, boolean ordered, Function<ImportTable, String> relation, String fingerprint,
+             ImportMetrics metrics, Set<ImportTable> tables) {
+            this.data = data;
+            this.ordered = ordered;
+            this.relation = relation;
+            this.fingerprint = fingerprint;
+            this.completedChunks = fingerprint == null ? Collections.emptyMap() : ledger.completedChunks(fingerprint);
+            this.metrics = metrics;
+            this.tables = tables;
+        }
+
+        void run() {
+            if (fingerprint == null && properties.isPipeline()) {
+                runPipelined();
+                return;
+            }
+            if (fingerprint == null && properties.getParallelism() <= 1) {
+                runSequential();
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, properties.getParallelism()));
+            Map<ImportTable, CompletableFuture<Void>> loads = new EnumMap<>(ImportTable.class);
+            try {
+                // declaration order is a topological order, so dependencies are always registered first
+                for (ImportTable table : tables) {
+                    CompletableFuture<?>[] dependencies = ordered
+                            ? table.getDependencies().stream().map(loads::get).toArray(CompletableFuture[]::new)
+                            : new CompletableFuture[0];
+                    loads.put(table, CompletableFuture.allOf(dependencies)
+                            .thenCompose(ignored -> loadSlices(table, executor))
+                            .thenRun(() -> release(table)));
+                }
+                CompletableFuture.allOf(loads.values().toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                if (fingerprint != null) {
+                    log.error("Import failed, rerun it with the same records to resume from the committed chunks");
+                } else {
+                    log.error("Import failed, truncating the loaded tables");
+                    truncate(relation);
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            } finally {
+                executor.shutdownNow();
+            }
+            if (fingerprint != null) {
+                ledger.clear(fingerprint);
+            }
+        }
+
+        private void runSequential() {
+            long start = System.nanoTime();
+            try (Connection conn = dataSource.getConnection()) {
+                // the one connection is shared by all tables, so its wait is attributed to the first
+                metrics.recordConnectionWait(tables.iterator().next(), System.nanoTime() - start);
+                conn.setAutoCommit(false);
+                for (ImportTable table : tables) {
+                    write(conn, table, 0, table.recordCount(data));
+                    release(table);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Loads every table through one {@link ImportPipeline}, or one per level of the dependency graph when
+         * {@code ordered}, since a pipeline commits its tables together.
+         */
+        private void runPipelined() {
+            List<List<ImportTable>> waves = new ArrayList<>();
+            if (ordered) {
+                Map<ImportTable, Integer> levels = new EnumMap<>(ImportTable.class);
+                // declaration order is a topological order, so dependencies always have their level already
+                for (ImportTable table : tables) {
+                    int level = table.getDependencies().stream().mapToInt(levels::get).map(l -> l + 1).max().orElse(0);
+                    levels.put(table, level);
+                    if (level == waves.size()) {
+                        waves.add(new ArrayList<>());
+                    }
+                    waves.get(level).add(table);
+                }
+            } else {
+                waves.add(new ArrayList<>(tables));
+            }
+            try {
+                for (List<ImportTable> wave : waves) {
+                    new ImportPipeline(dataSource, properties, sinks, bufferPool, data, relation, metrics,
+                            this::release).load(wave);
+                }
+            } catch (RuntimeException e) {
+                log.error("Import failed, truncating the loaded tables");
+                truncate(relation);
+                throw e;
+            }
+        }
+
+        /**
+         * Lets go of the records of {@code table} in heap-budget mode, once it no longer needs them.
+         */
+        private void release(ImportTable table) {
+            if (properties.getHeapBudget() != null) {
+                data.release(table);
+            }
+        }
+
+        private CompletableFuture<Void> loadSlices(ImportTable table, ExecutorService executor) {
+            List<int[]> ranges = ranges(table);
+            int shards = properties.getShardedTables().contains(table)
+                    ? Math.max(1, Math.min(properties.getShards(), ranges.size()))
+                    : 1;
+            CompletableFuture<?>[] slices = new CompletableFuture[shards];
+            for (int i = 0; i < shards; i++) {
+                List<int[]> slice = ranges.subList(ranges.size() * i / shards, ranges.size() * (i + 1) / shards);
+                slices[i] = CompletableFuture.runAsync(() -> load(table, slice), executor);
+            }
+            return CompletableFuture.allOf(slices);
+        }
+
+        /**
+         * The record ranges of {@code table} to load: the whole table, or its missing chunks when resumable.
+         */
+        private List<int[]> ranges(ImportTable table) {
+            int count = table.recordCount(data);
+            List<int[]> ranges = new ArrayList<>();
+            if (fingerprint == null) {
+                int shards = properties.getShardedTables().contains(table) ? Math.max(1, properties.getShards()) : 1;
+                for (int i = 0; i < shards; i++) {
+                    ranges.add(new int[]{(int) ((long) count * i / shards), (int) ((long) count * (i + 1) / shards)});
+                }
+                return ranges;
+            }
+            Map<Integer, String> completed = completedChunks.get(table);
+            for (int from = 0; from < count; from += properties.getChunkSize()) {
+                int to = Math.min(count, from + properties.getChunkSize());
+                String committed = completed.get(from);
+                if (committed == null) {
+                    ranges.add(new int[]{from, to});
+                } else if (!committed.equals(ledger.chunkHash(data, table, from, to))) {
+                    // loading it again would add rows next to those of the other records
+                    throw new IllegalStateException("Chunk [" + from + ", " + to + ") of " + table.getTableName()
+                            + " was committed from other records, truncate the tables and import again");
+                }
+            }
+            if (!completed.isEmpty()) {
+                log.info("Resuming {}: {} chunks already committed, {} to go",
+                        table.getTableName(), completed.size(), ranges.size());
+            }
+            return ranges;
+        }
+
+        /**
+         * Loads the ranges of one slice on one connection, in one transaction or one per range when resumable.
+         */
+        private void load(ImportTable table, List<int[]> slice) {
+            if (slice.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try (Connection conn = dataSource.getConnection()) {
+                metrics.recordConnectionWait(table, System.nanoTime() - start);
+                conn.setAutoCommit(false);
+                for (int[] range : slice) {
+                    write(conn, table, range[0], range[1]);
+                    if (fingerprint != null) {
+                        ledger.record(conn, fingerprint, table, range[0], range[1],
+                                ledger.chunkHash(data, table, range[0], range[1]));
+                        conn.commit();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            log.info("Loaded {} records [{}, {}) in {} ms", relation.apply(table),
+                    slice.get(0)[0], slice.get(slice.size() - 1)[1], (System.nanoTime() - start) / 1_000_000);
+        }
+
+        private void write(Connection conn, ImportTable table, int from, int to) throws SQLException {
+            ImportSink sink = sinks.forTable(table);
+            long start = System.nanoTime();
+            long allocated = ImportMetrics.threadAllocatedBytes();
+            try (RowWriter writer = sink.open(conn, table, relation.apply(table))) {
+                table.write(data, from, to, writer);
+                writer.finish();
+                metrics.record(table, sink.getName(), writer, start, System.nanoTime(),
+                        ImportMetrics.threadAllocatedBytes() - allocated);
+            }
+        }
+    }
+}
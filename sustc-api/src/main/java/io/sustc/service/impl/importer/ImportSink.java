@@ -0,0 +1,25 @@
+package io.sustc.service.impl.importer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A way of shipping the rows of an {@link ImportTable} to the database.
+ * <p>
+ * Sinks are Spring beans looked up by {@link #getName()}, so a new one is plugged in by declaring another
+ * {@link org.springframework.stereotype.Component} and referencing its name in {@link ImportProperties#getSink()}
+ * or {@link ImportProperties#getTableSinks()}.
+ */
+public interface ImportSink {
+
+    /**
+     * The name the sink is selected by in {@code application.yml}.
+     */
+    String getName();
+
+    /**
+     * Opens a writer that loads rows of {@code table} into {@code relation}, which is either the table itself
+     * or a copy of it with the same columns.
+     */
+    RowWriter open(Connection conn, ImportTable table, String relation) throws SQLException;
+}
@@ -0,0 +1,51 @@
+package io.sustc.service.impl.importer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the {@link ImportSink} of each table from {@link ImportProperties}.
+ * <p>
+ * The {@link ImportPipeline} always ships COPY streams, so with {@link ImportProperties#isPipeline()} every table
+ * must resolve to one of the {@link #PIPELINE_SINKS}, which is checked on startup.
+ */
+@Component
+public class ImportSinks {
+
+    static final Set<String> PIPELINE_SINKS = Set.of(TextCopySink.NAME, BinaryCopySink.NAME, NullSink.NAME);
+
+    private final Map<String, ImportSink> sinks;
+
+    private final ImportProperties properties;
+
+    @Autowired
+    public ImportSinks(List<ImportSink> sinks, ImportProperties properties) {
+        this.sinks = sinks.stream().collect(Collectors.toMap(ImportSink::getName, Function.identity()));
+        this.properties = properties;
+        if (properties.isPipeline()) {
+            for (ImportTable table : ImportTable.values()) {
+                String name = forTable(table).getName();
+                if (!PIPELINE_SINKS.contains(name)) {
+                    throw new IllegalStateException("import.pipeline ships COPY streams, but " + table.getTableName()
+                            + " is configured for the '" + name + "' sink, expected one of " + PIPELINE_SINKS);
+                }
+            }
+        }
+    }
+
+    public ImportSink forTable(ImportTable table) {
+        String name = properties.getTableSinks().getOrDefault(table, properties.getSink());
+        ImportSink sink = sinks.get(name);
+        if (sink == null) {
+            throw new IllegalArgumentException("Unknown import sink '" + name + "' for " + table.getTableName()
+                    + ", expected one of " + sinks.keySet());
+        }
+        return sink;
+    }
+}
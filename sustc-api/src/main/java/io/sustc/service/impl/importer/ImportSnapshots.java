@@ -0,0 +1,322 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.ImportReport;
+import io.sustc.service.ImportSnapshotService;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Saves the imported {@link ImportTable}s to a directory and loads them back, so a dataset only has to go through
+ * {@link io.sustc.service.DatabaseService#importData} once.
+ * <p>
+ * A snapshot holds one file per table written by {@code COPY ... TO STDOUT} in binary format, plus a
+ * {@value #MANIFEST} recording the {@link #FORMAT_VERSION} and the row counts. It is written to a temporary
+ * directory and moved into place at the end, so a snapshot directory with a manifest is always complete.
+ * <p>
+ * Restoring runs the same stages as a deferred import: the indexes and foreign keys are dropped by
+ * {@link ConstraintDeferral}, every table is copied in concurrently, and the {@link PostImportMaintenance} rebuilds
+ * the indexes before the foreign keys come back. Serial sequences and those of the {@link IdAllocator} are then
+ * moved past the restored ids, and the {@link ImportListener}s are notified like after an import, with
+ * {@linkplain ImportData#isReleased() no records} in memory. A failed restore truncates the tables again, so that
+ * it can simply be retried.
+ */
+@Component
+@Slf4j
+public class ImportSnapshots implements ImportSnapshotService {
+
+    /**
+     * Bumped whenever the tables or their encoding change, which invalidates older snapshots.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    public static final String SINK = "snapshot";
+
+    private static final String MANIFEST = "snapshot.properties";
+
+    private static final String FIND_SERIAL_COLUMNS = """
+            SELECT a.attrelid::regclass::text AS tbl, quote_ident(a.attname) AS col, s.seq
+            FROM pg_attribute a, LATERAL pg_get_serial_sequence(a.attrelid::regclass::text, a.attname) s (seq)
+            WHERE a.attrelid = ANY (?::text[]::regclass[])
+              AND a.attnum > 0
+              AND NOT a.attisdropped
+              AND s.seq IS NOT NULL
+            """;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ImportProperties properties;
+
+    @Autowired
+    private ConstraintDeferral constraintDeferral;
+
+    @Autowired
+    private PostImportMaintenance maintenance;
+
+    @Autowired
+    private SummaryTables summaryTables;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private ImportScheduler scheduler;
+
+    @Override
+    public int getFormatVersion() {
+        return FORMAT_VERSION;
+    }
+
+    /**
+     * Whether {@code dir} holds a complete snapshot of the current {@link #FORMAT_VERSION}.
+     */
+    @Override
+    public boolean exists(Path dir) {
+        Path manifest = dir.resolve(MANIFEST);
+        if (!Files.isRegularFile(manifest)) {
+            return false;
+        }
+        return String.valueOf(FORMAT_VERSION).equals(readManifest(manifest).getProperty("format-version"));
+    }
+
+    /**
+     * Exports every table into {@code dir}, replacing any snapshot already there.
+     */
+    @Override
+    public void save(Path dir) {
+        long start = System.nanoTime();
+        Path tmp = dir.resolveSibling(dir.getFileName() + ".tmp");
+        Properties manifest = new Properties();
+        manifest.setProperty("format-version", String.valueOf(FORMAT_VERSION));
+        try {
+            deleteRecursively(tmp);
+            Files.createDirectories(tmp);
+            forEachTable(table -> {
+                try (Connection conn = dataSource.getConnection();
+                     OutputStream out = Files.newOutputStream(tmp.resolve(fileName(table)))) {
+                    long rows = copyManager(conn).copyOut("COPY " + table.getTableName()
+                            + " (" + String.join(", ", table.getColumns()) + ") TO STDOUT WITH (FORMAT binary)", out);
+                    synchronized (manifest) {
+                        manifest.setProperty(table.name() + ".rows", String.valueOf(rows));
+                    }
+                }
+            });
+            try (OutputStream out = Files.newOutputStream(tmp.resolve(MANIFEST))) {
+                manifest.store(out, "import snapshot");
+            }
+            deleteRecursively(dir);
+            Files.createDirectories(dir.getParent());
+            Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Saved snapshot {} in {} ms", dir, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Loads the snapshot in {@code dir} into the import tables, which must be empty.
+     *
+     * @return what loading each table achieved, reported like an import with the {@value #SINK} sink
+     */
+    @Override
+    public ImportReport restore(Path dir) {
+        if (!exists(dir)) {
+            throw new IllegalArgumentException("No snapshot of version " + FORMAT_VERSION + " in " + dir);
+        }
+        ImportMetrics metrics = new ImportMetrics();
+        summaryTables.prepare();
+        try {
+            checkEmpty();
+            List<ConstraintDeferral.DeferredObject> deferred = constraintDeferral.defer();
+            try {
+                forEachTable(table -> {
+                    Path file = dir.resolve(fileName(table));
+                    long start = System.nanoTime();
+                    try (Connection conn = dataSource.getConnection();
+                         InputStream in = Files.newInputStream(file)) {
+                        long rows = copyManager(conn).copyIn(table.binaryCopySql(table.getTableName()), in,
+                                properties.getCopyBufferSize());
+                        metrics.record(table, SINK, rows, Files.size(file), start, System.nanoTime());
+                    }
+                });
+                maintenance.run(deferred, metrics);
+            } catch (RuntimeException e) {
+                // the tables copied in so far are committed, and would fail the next restore's empty check
+                truncate();
+                try {
+                    constraintDeferral.restore(deferred);
+                } catch (RuntimeException restoreFailure) {
+                    e.addSuppressed(restoreFailure);
+                }
+                throw e;
+            }
+            try {
+                constraintDeferral.restore(deferred);
+            } catch (RuntimeException e) {
+                log.error("Restored snapshot violates a foreign key, truncating the restored tables");
+                truncate();
+                constraintDeferral.validate(deferred);
+                throw e;
+            }
+            resetSequences();
+            idAllocator.advancePastTables();
+        } finally {
+            summaryTables.attachTriggers();
+            metrics.log();
+        }
+        scheduler.notifyListeners(ImportData.unavailable());
+        return metrics.toReport();
+    }
+
+    /**
+     * Refuses to restore on top of existing rows, which would either collide with the snapshot's keys or be mixed
+     * into the restored data.
+     */
+    private void checkEmpty() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (ImportTable table : ImportTable.values()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT EXISTS (SELECT 1 FROM " + table.getTableName() + ")")) {
+                    rs.next();
+                    if (rs.getBoolean(1)) {
+                        throw new IllegalStateException("Cannot restore a snapshot into " + table.getTableName()
+                                + ", which is not empty");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Empties every import table after a failed restore, logging rather than masking a failure to do so.
+     */
+    private void truncate() {
+        String tables = Arrays.stream(ImportTable.values())
+                .map(ImportTable::getTableName)
+                .collect(Collectors.joining(", "));
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("TRUNCATE " + tables + " CASCADE");
+        } catch (SQLException e) {
+            log.error("Failed to truncate {}", tables, e);
+        }
+    }
+
+    /**
+     * Moves every serial sequence of the import tables past the largest id restored into its column.
+     */
+    private void resetSequences() {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement find = conn.prepareStatement(FIND_SERIAL_COLUMNS);
+             Statement stmt = conn.createStatement()) {
+            Array tables = conn.createArrayOf("text", Arrays.stream(ImportTable.values())
+                    .map(ImportTable::getTableName)
+                    .toArray());
+            find.setArray(1, tables);
+            List<String> updates = new ArrayList<>();
+            try (ResultSet rs = find.executeQuery()) {
+                while (rs.next()) {
+                    updates.add("SELECT setval('" + rs.getString("seq").replace("'", "''") + "', coalesce(max("
+                            + rs.getString("col") + "), 0) + 1, false) FROM " + rs.getString("tbl"));
+                }
+            }
+            for (String sql : updates) {
+                stmt.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs {@code task} for every table, each on its own thread, up to {@link ImportProperties#getParallelism()}
+     * at once.
+     */
+    private void forEachTable(TableTask task) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, properties.getParallelism()));
+        try {
+            CompletableFuture.allOf(Arrays.stream(ImportTable.values())
+                    .map(table -> CompletableFuture.runAsync(() -> {
+                        try {
+                            task.run(table);
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static CopyManager copyManager(Connection conn) throws SQLException {
+        return conn.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    private static String fileName(ImportTable table) {
+        return table.getTableName().toLowerCase(Locale.ROOT) + ".bin";
+    }
+
+    private static Properties readManifest(Path manifest) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(manifest)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private interface TableTask {
+
+        void run(ImportTable table) throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,341 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The tables filled by {@link io.sustc.service.DatabaseService#importData}, declared in an order where
+ * every table comes after the tables it references.
+ * <p>
+ * The last ones are the {@link SummaryTables}, filled from the {@link ImportAggregates} of the records.
+ */
+public enum ImportTable {
+
+    USERS("users", "mid", "name", "sex", "birthday", "level", "coin", "sign", "identity", "password", "qq", "wechat") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<UserRecord> userRecords = data.getUserRecords();
+            for (int p = from; p < to; p++) {
+                UserRecord user = userRecords.get(data.userAt(p));
+                out.writeLong(user.getMid());
+                out.writeString(user.getName());
+                out.writeString(user.getSex());
+                out.writeString(user.getBirthday());
+                out.writeShort(user.getLevel());
+                out.writeInt(user.getCoin());
+                out.writeString(user.getSign());
+                out.writeString(user.getIdentity().name());
+                out.writeString(user.getPassword());
+                out.writeString(user.getQq());
+                out.writeString(user.getWechat());
+                out.endRow();
+            }
+        }
+    },
+
+    FOLLOW("follow", "follower_mid", "following_mid") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<UserRecord> userRecords = data.getUserRecords();
+            for (int p = from; p < to; p++) {
+                UserRecord user = userRecords.get(data.userAt(p));
+                for (long following : user.getFollowing()) {
+                    out.writeLong(user.getMid());
+                    out.writeLong(following);
+                    out.endRow();
+                }
+            }
+        }
+    },
+
+    VIDEO("video", "bv", "title", "owner_mid", "owner_name", "commit_time", "review_time", "public_time",
+            "duration", "description", "reviewer_mid", "coin", "view", "likes", "favorite") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            for (int p = from; p < to; p++) {
+                VideoRecord video = videoRecords.get(data.videoAt(p));
+                out.writeString(video.getBv());
+                out.writeString(video.getTitle());
+                out.writeLong(video.getOwnerMid());
+                out.writeString(video.getOwnerName());
+                out.writeTimestamp(video.getCommitTime());
+                out.writeTimestamp(video.getReviewTime());
+                out.writeTimestamp(video.getPublicTime());
+                out.writeFloat(video.getDuration());
+                out.writeString(video.getDescription());
+                if (video.getReviewer() == null) {
+                    out.writeNull();
+                } else {
+                    out.writeLong(video.getReviewer());
+                }
+                out.writeLong(video.getCoin().length);
+                out.writeLong(video.getViewerMids().length);
+                out.writeLong(video.getLike().length);
+                out.writeLong(video.getFavorite().length);
+                out.endRow();
+            }
+        }
+    },
+
+    THUMBS_UP("thumbs_up", "video_BV", "user_mid") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            for (int p = from; p < to; p++) {
+                VideoRecord video = videoRecords.get(data.videoAt(p));
+                writeEdges(video.getBv(), video.getLike(), out);
+            }
+        }
+    },
+
+    COIN("coin", "video_BV", "user_mid") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            for (int p = from; p < to; p++) {
+                VideoRecord video = videoRecords.get(data.videoAt(p));
+                writeEdges(video.getBv(), video.getCoin(), out);
+            }
+        }
+    },
+
+    FAVORITE("favorite", "video_BV", "user_mid") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            for (int p = from; p < to; p++) {
+                VideoRecord video = videoRecords.get(data.videoAt(p));
+                writeEdges(video.getBv(), video.getFavorite(), out);
+            }
+        }
+    },
+
+    VIEW("view", "video_BV", "user_mid", "last_watch_time_duration") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            for (int p = from; p < to; p++) {
+                VideoRecord video = videoRecords.get(data.videoAt(p));
+                long[] viewerMids = video.getViewerMids();
+                float[] viewTime = video.getViewTime();
+                for (int i = 0; i < viewerMids.length; i++) {
+                    out.writeString(video.getBv());
+                    out.writeLong(viewerMids[i]);
+                    out.writeFloat(viewTime[i]);
+                    out.endRow();
+                }
+            }
+        }
+    },
+
+    DANMU("danmu", "bv", "user_mid", "time", "content", "post_time", "danmu_id") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<DanmuRecord> danmuRecords = data.getDanmuRecords();
+            for (int p = from; p < to; p++) {
+                int i = data.danmuAt(p);
+                DanmuRecord danmu = danmuRecords.get(i);
+                out.writeString(danmu.getBv());
+                out.writeLong(danmu.getMid());
+                out.writeFloat(danmu.getTime());
+                out.writeString(danmu.getContent());
+                out.writeTimestamp(danmu.getPostTime());
+                out.writeLong(data.danmuId(i));
+                out.endRow();
+            }
+        }
+    },
+
+    DANMU_LIKE_BY("DanmuLikeBy", "danmu_id", "mid") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<DanmuRecord> danmuRecords = data.getDanmuRecords();
+            for (int p = from; p < to; p++) {
+                int i = data.danmuAt(p);
+                long danmuId = data.danmuId(i);
+                for (long likedBy : danmuRecords.get(i).getLikedBy()) {
+                    out.writeLong(danmuId);
+                    out.writeLong(likedBy);
+                    out.endRow();
+                }
+            }
+        }
+    },
+
+    USER_STATS("user_stats", "mid", "follower_count", "following_count") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<UserRecord> userRecords = data.getUserRecords();
+            ImportAggregates aggregates = data.getAggregates();
+            for (int p = from; p < to; p++) {
+                int i = data.userAt(p);
+                UserRecord user = userRecords.get(i);
+                out.writeLong(user.getMid());
+                out.writeInt(aggregates.getFollowerCount(i));
+                out.writeInt(user.getFollowing().length);
+                out.endRow();
+            }
+        }
+    },
+
+    VIDEO_STATS("video_stats", "bv", "danmu_count", "view_count", "view_time_sum", "finished_view_count") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            ImportAggregates aggregates = data.getAggregates();
+            for (int p = from; p < to; p++) {
+                int i = data.videoAt(p);
+                VideoRecord video = videoRecords.get(i);
+                out.writeString(video.getBv());
+                out.writeInt(aggregates.getDanmuCount(i));
+                out.writeInt(video.getViewerMids().length);
+                out.writeDouble(aggregates.getViewTimeSum(i));
+                out.writeInt(aggregates.getFinishedViewCount(i));
+                out.endRow();
+            }
+        }
+    },
+
+    VIDEO_DANMU_CHUNK("video_danmu_chunk", "bv", "chunk", "danmu_count") {
+        @Override
+        public void write(ImportData data, int from, int to, RowWriter out) throws SQLException {
+            List<VideoRecord> videoRecords = data.getVideoRecords();
+            ImportAggregates aggregates = data.getAggregates();
+            for (int p = from; p < to; p++) {
+                int i = data.videoAt(p);
+                int[] chunks = aggregates.getDanmuChunks(i);
+                for (int chunk = 0; chunk < chunks.length; chunk++) {
+                    if (chunks[chunk] > 0) {
+                        out.writeString(videoRecords.get(i).getBv());
+                        out.writeInt(chunk);
+                        out.writeInt(chunks[chunk]);
+                        out.endRow();
+                    }
+                }
+            }
+        }
+    };
+
+    private final String tableName;
+
+    private final String[] columns;
+
+    ImportTable(String tableName, String... columns) {
+        this.tableName = tableName;
+        this.columns = columns;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * The tables whose rows must be present before this table can be loaded.
+     */
+    public Set<ImportTable> getDependencies() {
+        return switch (this) {
+            case USERS -> EnumSet.noneOf(ImportTable.class);
+            case FOLLOW, VIDEO -> EnumSet.of(USERS);
+            case THUMBS_UP, COIN, FAVORITE, VIEW, DANMU -> EnumSet.of(USERS, VIDEO);
+            case DANMU_LIKE_BY -> EnumSet.of(USERS, DANMU);
+            case USER_STATS -> EnumSet.of(USERS);
+            case VIDEO_STATS, VIDEO_DANMU_CHUNK -> EnumSet.of(VIDEO);
+        };
+    }
+
+    /**
+     * The number of source records the rows of this table are derived from, i.e. the size of the record list
+     * that {@link #write(ImportData, int, int, RowWriter)} ranges over.
+     */
+    public int recordCount(ImportData data) {
+        return switch (this) {
+            case USERS, FOLLOW, USER_STATS -> data.getUserRecords().size();
+            case VIDEO, THUMBS_UP, COIN, FAVORITE, VIEW, VIDEO_STATS, VIDEO_DANMU_CHUNK -> data.getVideoRecords().size();
+            case DANMU, DANMU_LIKE_BY -> data.getDanmuRecords().size();
+        };
+    }
+
+    /**
+     * The number of rows {@link #write(ImportData, int, int, RowWriter)} emits for the record at the load position
+     * {@code position}, e.g. the length of its {@code viewerMids} for {@link #VIEW}.
+     */
+    public int rowCount(ImportData data, int position) {
+        return switch (this) {
+            case USERS, USER_STATS -> 1;
+            case FOLLOW -> data.getUserRecords().get(data.userAt(position)).getFollowing().length;
+            case VIDEO, VIDEO_STATS -> 1;
+            case THUMBS_UP -> data.getVideoRecords().get(data.videoAt(position)).getLike().length;
+            case COIN -> data.getVideoRecords().get(data.videoAt(position)).getCoin().length;
+            case FAVORITE -> data.getVideoRecords().get(data.videoAt(position)).getFavorite().length;
+            case VIEW -> data.getVideoRecords().get(data.videoAt(position)).getViewerMids().length;
+            // an upper bound, as chunks without danmus are skipped
+            case VIDEO_DANMU_CHUNK -> data.getAggregates().getDanmuChunks(data.videoAt(position)).length;
+            case DANMU -> 1;
+            case DANMU_LIKE_BY -> data.getDanmuRecords().get(data.danmuAt(position)).getLikedBy().length;
+        };
+    }
+
+    /**
+     * Emits the rows of this table derived from the source records at the load positions {@code [from, to)},
+     * see {@link ImportData#sortByAccessKey()}.
+     */
+    public abstract void write(ImportData data, int from, int to, RowWriter out) throws SQLException;
+
+    /**
+     * Emits every row of this table derived from {@code data}.
+     */
+    public void write(ImportData data, RowWriter out) throws SQLException {
+        write(data, 0, recordCount(data), out);
+    }
+
+    /**
+     * Inserts the rows derived from {@code data} into this table, encoded exactly as an import loads them. Meant for
+     * the few rows the services write online.
+     */
+    public void insert(Connection conn, ImportData data) throws SQLException {
+        int size = Math.max(1, recordCount(data));
+        try (RowWriter out = new JdbcBatchWriter(conn, this, tableName, new BatchSizeController(size, size, size))) {
+            write(data, out);
+            out.finish();
+        }
+    }
+
+    public String insertSql(String relation) {
+        return "INSERT INTO " + relation + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+    }
+
+    public String unnestSql(String relation) {
+        return "INSERT INTO " + relation + " (" + String.join(", ", columns) + ") SELECT * FROM unnest("
+                + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+    }
+
+    public String copySql(String relation) {
+        return "COPY " + relation + " (" + String.join(", ", columns) + ") FROM STDIN";
+    }
+
+    public String binaryCopySql(String relation) {
+        return copySql(relation) + " WITH (FORMAT binary)";
+    }
+
+    private static void writeEdges(String bv, long[] mids, RowWriter out) throws SQLException {
+        for (long mid : mids) {
+            out.writeString(bv);
+            out.writeLong(mid);
+            out.endRow();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Removes the records that would violate a constraint of the {@link ImportTable}s, so that one bad row does not fail
+ * a whole batch and with it the import:
+ * <ul>
+ *   <li>duplicates: users with a {@code mid} already seen, videos with a {@code bv} already seen, and repeated mids
+ *   in the same follow, like, coin, favorite, view or danmu like list</li>
+ *   <li>dangling references: videos whose owner or reviewer, danmus whose video or sender, and list entries whose
+ *   user is not among the records; the rows derived from a removed record count as dangling too</li>
+ * </ul>
+ * The first occurrence of a duplicate is kept. The lists are filtered on the common fork-join pool against
+ * {@link LongHashSet}s of the valid mids. The records passed in are never modified: a record that loses an entry
+ * is replaced by a copy holding the cleaned arrays, and the others are kept as they are.
+ * <p>
+ * The valid records are collected into lists of their own, which the {@link ImportData} holds until the import
+ * ends, so validation cannot be combined with {@link ImportProperties#getHeapBudget()}.
+ * <p>
+ * What was removed is counted per table, as rows that would otherwise have been loaded.
+ */
+@Slf4j
+public class ImportValidation {
+
+    private final Map<ImportTable, LongAdder> duplicates = new EnumMap<>(ImportTable.class);
+
+    private final Map<ImportTable, LongAdder> dangling = new EnumMap<>(ImportTable.class);
+
+    private ImportValidation() {
+        for (ImportTable table : ImportTable.values()) {
+            duplicates.put(table, new LongAdder());
+            dangling.put(table, new LongAdder());
+        }
+    }
+
+    /**
+     * Validates the records of {@code data} and replaces them with the valid ones, leaving the records themselves
+     * untouched. Must be called before the load order or the ids of the records are fixed.
+     */
+    static ImportValidation run(ImportData data) {
+        ImportValidation validation = new ImportValidation();
+        long start = System.nanoTime();
+
+        List<UserRecord> users = validation.uniqueUsers(data.getUserRecords());
+        LongHashSet mids = new LongHashSet(users.size());
+        users.forEach(user -> mids.add(user.getMid()));
+        List<VideoRecord> videos = validation.validVideos(data.getVideoRecords(), mids);
+        Set<String> bvs = videos.stream().map(VideoRecord::getBv).collect(Collectors.toCollection(HashSet::new));
+
+        List<UserRecord> cleanUsers = users.parallelStream()
+                .map(user -> validation.cleanUser(user, mids))
+                .collect(Collectors.toList());
+        List<VideoRecord> cleanVideos = videos.parallelStream()
+                .map(video -> validation.cleanVideo(video, mids))
+                .collect(Collectors.toList());
+        List<DanmuRecord> cleanDanmus = data.getDanmuRecords().parallelStream()
+                .filter(danmu -> validation.isValid(danmu, mids, bvs))
+                .map(danmu -> validation.cleanDanmu(danmu, mids))
+                .collect(Collectors.toList());
+
+        data.replaceRecords(cleanDanmus, cleanUsers, cleanVideos);
+        validation.log((System.nanoTime() - start) / 1_000_000);
+        return validation;
+    }
+
+    /**
+     * Number of rows of {@code table} removed, for either reason.
+     */
+    public long getRemoved(ImportTable table) {
+        return duplicates.get(table).sum() + dangling.get(table).sum();
+    }
+
+    private List<UserRecord> uniqueUsers(List<UserRecord> users) {
+        LongHashSet seen = new LongHashSet(users.size());
+        boolean[] keep = new boolean[users.size()];
+        for (int i = 0; i < keep.length; i++) {
+            UserRecord user = users.get(i);
+            keep[i] = seen.add(user.getMid());
+            if (!keep[i]) {
+                duplicates.get(ImportTable.USERS).increment();
+                dangling.get(ImportTable.FOLLOW).add(user.getFollowing().length);
+            }
+        }
+        return select(users, keep);
+    }
+
+    private List<VideoRecord> validVideos(List<VideoRecord> videos, LongHashSet mids) {
+        Set<String> seen = new HashSet<>(videos.size() * 2);
+        boolean[] keep = new boolean[videos.size()];
+        for (int i = 0; i < keep.length; i++) {
+            VideoRecord video = videos.get(i);
+            if (!seen.add(video.getBv())) {
+                duplicates.get(ImportTable.VIDEO).increment();
+            } else if (!mids.contains(video.getOwnerMid())
+                    || video.getReviewer() != null && !mids.contains(video.getReviewer())) {
+                dangling.get(ImportTable.VIDEO).increment();
+            } else {
+                keep[i] = true;
+                continue;
+            }
+            dangling.get(ImportTable.THUMBS_UP).add(video.getLike().length);
+            dangling.get(ImportTable.COIN).add(video.getCoin().length);
+            dangling.get(ImportTable.FAVORITE).add(video.getFavorite().length);
+            dangling.get(ImportTable.VIEW).add(video.getViewerMids().length);
+        }
+        return select(videos, keep);
+    }
+
+    private UserRecord cleanUser(UserRecord user, LongHashSet mids) {
+        long[] following = clean(user.getFollowing(), mids, ImportTable.FOLLOW);
+        if (following == user.getFollowing()) {
+            return user;
+        }
+        UserRecord copy = copyOf(user);
+        copy.setFollowing(following);
+        return copy;
+    }
+
+    private DanmuRecord cleanDanmu(DanmuRecord danmu, LongHashSet mids) {
+        long[] likedBy = clean(danmu.getLikedBy(), mids, ImportTable.DANMU_LIKE_BY);
+        if (likedBy == danmu.getLikedBy()) {
+            return danmu;
+        }
+        DanmuRecord copy = copyOf(danmu);
+        copy.setLikedBy(likedBy);
+        return copy;
+    }
+
+    private VideoRecord cleanVideo(VideoRecord video, LongHashSet mids) {
+        long[] like = clean(video.getLike(), mids, ImportTable.THUMBS_UP);
+        long[] coin = clean(video.getCoin(), mids, ImportTable.COIN);
+        long[] favorite = clean(video.getFavorite(), mids, ImportTable.FAVORITE);
+
+        // the view times are aligned with the viewers, so they are filtered along
+        long[] viewers = video.getViewerMids();
+        float[] times = video.getViewTime();
+        LongHashSet seen = new LongHashSet(viewers.length);
+        int[] kept = new int[viewers.length];
+        int n = 0;
+        for (int i = 0; i < viewers.length; i++) {
+            if (!mids.contains(viewers[i])) {
+                dangling.get(ImportTable.VIEW).increment();
+            } else if (!seen.add(viewers[i])) {
+                duplicates.get(ImportTable.VIEW).increment();
+            } else {
+                kept[n++] = i;
+            }
+        }
+        if (n < viewers.length) {
+            viewers = new long[n];
+            times = new float[n];
+            for (int i = 0; i < n; i++) {
+                viewers[i] = video.getViewerMids()[kept[i]];
+                times[i] = video.getViewTime()[kept[i]];
+            }
+        }
+
+        if (like == video.getLike() && coin == video.getCoin() && favorite == video.getFavorite()
+                && viewers == video.getViewerMids()) {
+            return video;
+        }
+        VideoRecord copy = copyOf(video);
+        copy.setLike(like);
+        copy.setCoin(coin);
+        copy.setFavorite(favorite);
+        copy.setViewerMids(viewers);
+        copy.setViewTime(times);
+        return copy;
+    }
+
+    private boolean isValid(DanmuRecord danmu, LongHashSet mids, Set<String> bvs) {
+        if (bvs.contains(danmu.getBv()) && mids.contains(danmu.getMid())) {
+            return true;
+        }
+        dangling.get(ImportTable.DANMU).increment();
+        dangling.get(ImportTable.DANMU_LIKE_BY).add(danmu.getLikedBy().length);
+        return false;
+    }
+
+    /**
+     * The mids of {@code edges} that are valid and not repeated, {@code edges} itself if they all are.
+     */
+    private long[] clean(long[] edges, LongHashSet mids, ImportTable table) {
+        LongHashSet seen = new LongHashSet(edges.length);
+        long[] kept = null;
+        int n = 0;
+        for (int i = 0; i < edges.length; i++) {
+            boolean valid = mids.contains(edges[i]);
+            if (valid && seen.add(edges[i])) {
+                if (kept != null) {
+                    kept[n] = edges[i];
+                }
+                n++;
+                continue;
+            }
+            (valid ? duplicates : dangling).get(table).increment();
+            if (kept == null) {
+                // copy on the first removal, leaving the caller's array untouched
+                kept = Arrays.copyOf(edges, edges.length);
+            }
+        }
+        return kept == null ? edges : Arrays.copyOf(kept, n);
+    }
+
+    private static UserRecord copyOf(UserRecord user) {
+        UserRecord copy = new UserRecord();
+        copy.setMid(user.getMid());
+        copy.setName(user.getName());
+        copy.setSex(user.getSex());
+        copy.setBirthday(user.getBirthday());
+        copy.setLevel(user.getLevel());
+        copy.setCoin(user.getCoin());
+        copy.setSign(user.getSign());
+        copy.setIdentity(user.getIdentity());
+        copy.setPassword(user.getPassword());
+        copy.setQq(user.getQq());
+        copy.setWechat(user.getWechat());
+        copy.setFollowing(user.getFollowing());
+        return copy;
+    }
+
+    private static VideoRecord copyOf(VideoRecord video) {
+        VideoRecord copy = new VideoRecord();
+        copy.setBv(video.getBv());
+        copy.setTitle(video.getTitle());
+        copy.setOwnerMid(video.getOwnerMid());
+        copy.setOwnerName(video.getOwnerName());
+        copy.setCommitTime(video.getCommitTime());
+        copy.setReviewTime(video.getReviewTime());
+        copy.setPublicTime(video.getPublicTime());
+        copy.setDuration(video.getDuration());
+        copy.setDescription(video.getDescription());
+        copy.setReviewer(video.getReviewer());
+        copy.setLike(video.getLike());
+        copy.setCoin(video.getCoin());
+        copy.setFavorite(video.getFavorite());
+        copy.setViewerMids(video.getViewerMids());
+        copy.setViewTime(video.getViewTime());
+        return copy;
+    }
+
+    private static DanmuRecord copyOf(DanmuRecord danmu) {
+        DanmuRecord copy = new DanmuRecord();
+        copy.setBv(danmu.getBv());
+        copy.setMid(danmu.getMid());
+        copy.setTime(danmu.getTime());
+        copy.setContent(danmu.getContent());
+        copy.setPostTime(danmu.getPostTime());
+        copy.setLikedBy(danmu.getLikedBy());
+        return copy;
+    }
+
+    private static <T> List<T> select(List<T> records, boolean[] keep) {
+        return IntStream.range(0, keep.length)
+                .filter(i -> keep[i])
+                .mapToObj(records::get)
+                .collect(Collectors.toList());
+    }
+
+    private void log(long millis) {
+        long total = 0;
+        for (ImportTable table : ImportTable.values()) {
+            long duplicated = duplicates.get(table).sum();
+            long dangled = dangling.get(table).sum();
+            if (duplicated + dangled > 0) {
+                log.warn("Removed {} duplicate and {} dangling rows from {}", duplicated, dangled, table.getTableName());
+            }
+            total += duplicated + dangled;
+        }
+        log.info("Validated records in {} ms, {} rows removed", millis, total);
+    }
+}
@@ -0,0 +1,109 @@
+package io.sustc.service.impl.importer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts the indexes {@code 0 .. n-1} of a list by a comparator over indexes, leaving the list itself untouched.
+ * <p>
+ * A stable merge sort whose halves are sorted in parallel on the common {@link ForkJoinPool} down to
+ * {@value #SEQUENTIAL_THRESHOLD} elements.
+ */
+final class IndexSort {
+
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+    private static final int INSERTION_THRESHOLD = 32;
+
+    @FunctionalInterface
+    interface IndexComparator {
+
+        int compare(int a, int b);
+    }
+
+    private IndexSort() {
+    }
+
+    /**
+     * The indexes sorted by {@code keys[index]}, ties keeping their original order.
+     */
+    static int[] byKey(long[] keys) {
+        return sort(keys.length, (a, b) -> Long.compare(keys[a], keys[b]));
+    }
+
+    static int[] sort(int n, IndexComparator comparator) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        ForkJoinPool.commonPool().invoke(new MergeSort(order, new int[n], 0, n, comparator));
+        return order;
+    }
+
+    private static final class MergeSort extends RecursiveAction {
+
+        private final int[] a;
+
+        private final int[] tmp;
+
+        private final int from;
+
+        private final int to;
+
+        private final IndexComparator comparator;
+
+        MergeSort(int[] a, int[] tmp, int from, int to, IndexComparator comparator) {
+            this.a = a;
+            this.tmp = tmp;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                sortSequential(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new MergeSort(a, tmp, from, mid, comparator), new MergeSort(a, tmp, mid, to, comparator));
+            merge(from, mid, to);
+        }
+
+        private void sortSequential(int from, int to) {
+            if (to - from <= INSERTION_THRESHOLD) {
+                for (int i = from + 1; i < to; i++) {
+                    int v = a[i];
+                    int j = i - 1;
+                    while (j >= from && comparator.compare(a[j], v) > 0) {
+                        a[j + 1] = a[j];
+                        j--;
+                    }
+                    a[j + 1] = v;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sortSequential(from, mid);
+            sortSequential(mid, to);
+            merge(from, mid, to);
+        }
+
+        private void merge(int from, int mid, int to) {
+            if (comparator.compare(a[mid - 1], a[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(a, from, tmp, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++) {
+                if (j >= to || (i < mid && comparator.compare(tmp[i], tmp[j]) <= 0)) {
+                    a[k] = tmp[i++];
+                } else {
+                    a[k] = tmp[j++];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.sustc.service.impl.importer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@code INSERT} through {@link java.sql.PreparedStatement#addBatch()}.
+ */
+@Component
+public class JdbcBatchSink implements ImportSink {
+
+    public static final String NAME = "batch";
+
+    @Autowired
+    private ImportProperties properties;
+
+    /**
+     * One controller per table, kept across imports so that the next one starts from the size that worked.
+     */
+    private final Map<ImportTable, BatchSizeController> controllers = new EnumMap<>(ImportTable.class);
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public RowWriter open(Connection conn, ImportTable table, String relation) throws SQLException {
+        return new JdbcBatchWriter(conn, table, relation, controller(table));
+    }
+
+    private synchronized BatchSizeController controller(ImportTable table) {
+        if (!properties.isAdaptiveBatchSize()) {
+            return new BatchSizeController(properties.getBatchSize(), properties.getBatchSize(),
+                    properties.getBatchSize());
+        }
+        return controllers.computeIfAbsent(table, ignored -> new BatchSizeController(
+                properties.getBatchSize(), properties.getMinBatchSize(), properties.getMaxBatchSize()));
+    }
+}
@@ -0,0 +1,140 @@
+package io.sustc.service.impl.importer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Loads rows with a batched {@code INSERT} statement, flushing every {@link BatchSizeController#getSize()} rows.
+ */
+class JdbcBatchWriter implements RowWriter {
+
+    private final PreparedStatement stmt;
+
+    private final BatchSizeController batchSize;
+
+    private final LatencyHistogram flushLatencies = new LatencyHistogram();
+
+    private int parameterIndex = 1;
+
+    private int pending;
+
+    private long rows;
+
+    private long bytes;
+
+    JdbcBatchWriter(Connection conn, ImportTable table, String relation, BatchSizeController batchSize)
+            throws SQLException {
+        this.stmt = conn.prepareStatement(table.insertSql(relation));
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void writeLong(long value) throws SQLException {
+        stmt.setLong(parameterIndex++, value);
+        bytes += 8;
+    }
+
+    @Override
+    public void writeInt(int value) throws SQLException {
+        stmt.setInt(parameterIndex++, value);
+        bytes += 4;
+    }
+
+    @Override
+    public void writeShort(short value) throws SQLException {
+        stmt.setShort(parameterIndex++, value);
+        bytes += 2;
+    }
+
+    @Override
+    public void writeFloat(float value) throws SQLException {
+        stmt.setFloat(parameterIndex++, value);
+        bytes += 4;
+    }
+
+    @Override
+    public void writeDouble(double value) throws SQLException {
+        stmt.setDouble(parameterIndex++, value);
+        bytes += 8;
+    }
+
+    @Override
+    public void writeString(String value) throws SQLException {
+        stmt.setString(parameterIndex++, value);
+        if (value != null) {
+            bytes += CopyBuffer.utf8Length(value);
+        }
+    }
+
+    @Override
+    public void writeTimestamp(Timestamp value) throws SQLException {
+        stmt.setTimestamp(parameterIndex++, value);
+        bytes += 8;
+    }
+
+    @Override
+    public void writeNull() throws SQLException {
+        stmt.setNull(parameterIndex++, Types.NULL);
+    }
+
+    @Override
+    public void endRow() throws SQLException {
+        stmt.addBatch();
+        parameterIndex = 1;
+        rows++;
+        if (++pending >= batchSize.getSize()) {
+            flush(true);
+        }
+    }
+
+    @Override
+    public void finish() throws SQLException {
+        if (pending > 0) {
+            flush(false);
+        }
+    }
+
+    /**
+     * @param full whether the batch reached the current size; only those tell the controller anything
+     */
+    private void flush(boolean full) throws SQLException {
+        long start = System.nanoTime();
+        stmt.executeBatch();
+        long nanos = System.nanoTime() - start;
+        flushLatencies.record(nanos);
+        if (full) {
+            batchSize.record(pending, nanos);
+        }
+        pending = 0;
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public long getByteCount() {
+        return bytes;
+    }
+
+    /**
+     * The batch size currently in use.
+     */
+    int getBatchSize() {
+        return batchSize.getSize();
+    }
+
+    @Override
+    public LatencyHistogram getFlushLatencies() {
+        return flushLatencies;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        stmt.close();
+    }
+}
@@ -0,0 +1,60 @@
+package io.sustc.service.impl.importer;
+
+/**
+ * Counts latencies in power-of-two buckets of nanoseconds, precise to a factor of two, which is enough to tell
+ * a sub-millisecond flush from one stalling for seconds. Not thread-safe.
+ */
+public class LatencyHistogram {
+
+    private final long[] buckets = new long[64];
+
+    private long count;
+
+    private long totalNanos;
+
+    private long maxNanos;
+
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * An upper bound of the {@code q}-quantile, e.g. {@code 0.99} for the 99th percentile, {@code 0} if empty.
+     */
+    public long percentileNanos(double q) {
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(maxNanos, i == 63 ? Long.MAX_VALUE : (2L << i) - 1);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,94 @@
+package io.sustc.service.impl.importer;
+
+/**
+ * A set of {@code long}s with open addressing and linear probing, storing the values unboxed in one array.
+ * <p>
+ * Not thread-safe for writes, but a fully built set may be read from any number of threads.
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] slots;
+
+    private int mask;
+
+    private int size;
+
+    /**
+     * Whether {@link #EMPTY} itself is in the set, as it cannot be stored in a slot.
+     */
+    private boolean containsEmpty;
+
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.slots = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    int size() {
+        return size + (containsEmpty ? 1 : 0);
+    }
+
+    /**
+     * @return whether {@code value} was not in the set yet
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            boolean added = !containsEmpty;
+            containsEmpty = true;
+            return added;
+        }
+        int i = slot(value);
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        // keep the load factor at 1/2 at most
+        if (++size * 2 > slots.length) {
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        for (int i = slot(value); slots[i] != EMPTY; i = (i + 1) & mask) {
+            if (slots[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int slot(long value) {
+        // murmur3 finalizer, so that sequential ids spread over the table
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        mask = slots.length - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = slot(value);
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.sustc.service.impl.importer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+
+/**
+ * Encodes rows like the COPY sinks but throws the bytes away without touching the database.
+ * <p>
+ * Comparing its throughput with that of a real sink tells how much of the import time is spent in
+ * walking the records and encoding them rather than in the database.
+ */
+@Component
+public class NullSink implements ImportSink {
+
+    public static final String NAME = "null";
+
+    @Autowired
+    private ImportProperties properties;
+
+    @Autowired
+    private CopyBufferPool bufferPool;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public RowWriter open(Connection conn, ImportTable table, String relation) {
+        if (properties.isNullSinkBinary()) {
+            return new BinaryCopyWriter(CopyTarget.discard(), bufferPool, table, properties.getCopyBufferSize());
+        }
+        return new TextCopyWriter(CopyTarget.discard(), bufferPool, properties.getCopyBufferSize());
+    }
+}
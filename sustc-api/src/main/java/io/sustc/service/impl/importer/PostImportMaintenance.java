@@ -0,0 +1,103 @@
+package io.sustc.service.impl.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gets the freshly loaded {@link ImportTable}s ready for the online queries: builds the indexes
+ * {@link ConstraintDeferral} dropped for the load, then refreshes the planner statistics with {@code ANALYZE} and,
+ * with {@link ImportProperties#isVacuum()}, freezes the rows and sets the visibility map with {@code VACUUM (FREEZE)}
+ * so index-only scans do not have to visit the heap.
+ * <p>
+ * Each table is processed on its own connection, up to {@link ImportProperties#getParallelism()} at once, and the
+ * time it became ready is recorded in the {@link ImportMetrics}.
+ */
+@Component
+@Slf4j
+public class PostImportMaintenance {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ImportProperties properties;
+
+    /**
+     * @param deferred the objects dropped by {@link ConstraintDeferral#defer()}, only the indexes are built here
+     */
+    public void run(List<ConstraintDeferral.DeferredObject> deferred, ImportMetrics metrics) {
+        if (deferred.isEmpty() && !properties.isAnalyze() && !properties.isVacuum()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, properties.getParallelism()));
+        try {
+            CompletableFuture.allOf(List.of(ImportTable.values()).stream()
+                    .map(table -> CompletableFuture.runAsync(() -> process(table, deferred, metrics), executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Finished post-import maintenance in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void process(ImportTable table, List<ConstraintDeferral.DeferredObject> deferred, ImportMetrics metrics) {
+        long start = System.nanoTime();
+        int statements = 0;
+        // VACUUM cannot run inside a transaction block, so stay in autocommit
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            String relation = regclass(conn, table);
+            for (ConstraintDeferral.DeferredObject object : deferred) {
+                if (object.getKind() == ConstraintDeferral.Kind.INDEX && object.getTable().equals(relation)) {
+                    stmt.execute(ConstraintDeferral.createIfNotExists(object));
+                    statements++;
+                }
+            }
+            // statistics last, so they cover the rebuilt indexes too
+            if (properties.isVacuum()) {
+                stmt.execute("VACUUM (FREEZE" + (properties.isAnalyze() ? ", ANALYZE) " : ") ") + relation);
+                statements++;
+            } else if (properties.isAnalyze()) {
+                stmt.execute("ANALYZE " + relation);
+                statements++;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        long end = System.nanoTime();
+        metrics.recordMaintenance(table, start, end);
+        log.debug("{} ready after {} statements in {} ms", table.getTableName(), statements,
+                (end - start) / 1_000_000);
+    }
+
+    /**
+     * The name of {@code table} as {@code regclass} prints it, like the {@link ConstraintDeferral.DeferredObject}s,
+     * so that unquoted mixed-case names such as {@code DanmuLikeBy} compare as the server folds them.
+     */
+    private static String regclass(Connection conn, ImportTable table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT ?::regclass::text")) {
+            stmt.setString(1, table.getTableName());
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+}
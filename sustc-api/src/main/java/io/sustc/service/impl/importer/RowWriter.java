@@ -0,0 +1,55 @@
+package io.sustc.service.impl.importer;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Receives the fields of an {@link ImportTable} row by row, in the order of {@link ImportTable#getColumns()}.
+ */
+public interface RowWriter extends AutoCloseable {
+
+    void writeLong(long value) throws SQLException;
+
+    void writeInt(int value) throws SQLException;
+
+    void writeShort(short value) throws SQLException;
+
+    void writeFloat(float value) throws SQLException;
+
+    void writeDouble(double value) throws SQLException;
+
+    void writeString(String value) throws SQLException;
+
+    void writeTimestamp(Timestamp value) throws SQLException;
+
+    void writeNull() throws SQLException;
+
+    /**
+     * Marks the end of the current row.
+     */
+    void endRow() throws SQLException;
+
+    /**
+     * Sends every pending row. Must be called once all rows are written, otherwise they are discarded on close.
+     */
+    void finish() throws SQLException;
+
+    /**
+     * Number of rows ended so far.
+     */
+    long getRowCount();
+
+    /**
+     * Number of bytes shipped so far: the encoded stream for COPY, the size of the bound values for JDBC.
+     */
+    long getByteCount();
+
+    /**
+     * How long each round trip shipping buffered rows took: {@code executeBatch} for JDBC, a buffer flush or the
+     * end of the stream for COPY.
+     */
+    LatencyHistogram getFlushLatencies();
+
+    @Override
+    void close() throws SQLException;
+}
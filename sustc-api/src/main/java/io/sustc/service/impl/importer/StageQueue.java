@@ -0,0 +1,95 @@
+package io.sustc.service.impl.importer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded queue between two stages of the {@link ImportPipeline}, which keeps track of how full it gets and of how
+ * long either side waits on it.
+ * <p>
+ * A producer waiting on a full queue means the consuming stage is the bottleneck, a consumer waiting on an empty
+ * one means the producing stage is.
+ */
+class StageQueue<T> {
+
+    private final String name;
+
+    private final BlockingQueue<T> queue;
+
+    private final LongAdder puts = new LongAdder();
+
+    private final LongAdder depthSum = new LongAdder();
+
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    private final LongAdder putStallNanos = new LongAdder();
+
+    private final LongAdder takeStallNanos = new LongAdder();
+
+    StageQueue(String name, int capacity) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    void put(T item) throws InterruptedException {
+        if (!queue.offer(item)) {
+            long start = System.nanoTime();
+            queue.put(item);
+            putStallNanos.add(System.nanoTime() - start);
+        }
+        int depth = queue.size();
+        puts.increment();
+        depthSum.add(depth);
+        maxDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    T take() throws InterruptedException {
+        T item = queue.poll();
+        if (item == null) {
+            long start = System.nanoTime();
+            item = queue.take();
+            takeStallNanos.add(System.nanoTime() - start);
+        }
+        return item;
+    }
+
+    /**
+     * The next item if there is one, without waiting. Meant for draining the queue once its stages stopped.
+     */
+    T poll() {
+        return queue.poll();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    long getPuts() {
+        return puts.sum();
+    }
+
+    /**
+     * Sum of the depths seen right after each put, to average over {@link #getPuts()}.
+     */
+    long getDepthSum() {
+        return depthSum.sum();
+    }
+
+    long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    long getPutStallNanos() {
+        return putStallNanos.sum();
+    }
+
+    long getTakeStallNanos() {
+        return takeStallNanos.sum();
+    }
+}
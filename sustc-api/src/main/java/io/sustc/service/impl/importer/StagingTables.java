@@ -0,0 +1,102 @@
+package io.sustc.service.impl.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * {@code UNLOGGED} copies of the {@link ImportTable}s used to bulk-load without writing WAL for every row.
+ * <p>
+ * The staging tables have the columns, defaults and {@code NOT NULL}s of their targets but no indexes or foreign
+ * keys, so they can be filled in any order. {@link #switchIn()} then moves everything into the real tables with one
+ * {@code INSERT ... SELECT} per table inside a single transaction, starting with a {@code TRUNCATE} of the targets:
+ * on a server with {@code wal_level = minimal}, rows written to a relation truncated in the same transaction skip
+ * WAL entirely. Renaming the staging tables into place instead would break the foreign keys referencing the
+ * original tables. On any other {@code wal_level}, the switch writes the rows to WAL like a plain insert, which
+ * {@link #create()} warns about.
+ */
+@Component
+@Slf4j
+public class StagingTables {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ImportProperties properties;
+
+    public static String nameOf(ImportTable table) {
+        return "import_staging_" + table.getTableName().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * (Re)creates an empty staging table for every import table.
+     */
+    public void create() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            // an append merges into tables it does not truncate, which writes WAL whatever the level
+            if (!properties.isAppend()) {
+                try (ResultSet rs = stmt.executeQuery("SHOW wal_level")) {
+                    if (rs.next() && !"minimal".equals(rs.getString(1))) {
+                        log.warn("wal_level is {}, not minimal, so switching the staging tables in writes every row "
+                                + "to WAL and staging only adds a copy; set wal_level = minimal and "
+                                + "max_wal_senders = 0 to skip it", rs.getString(1));
+                    }
+                }
+            }
+            conn.setAutoCommit(false);
+            for (ImportTable table : ImportTable.values()) {
+                stmt.execute("DROP TABLE IF EXISTS " + nameOf(table));
+                stmt.execute("CREATE UNLOGGED TABLE " + nameOf(table)
+                        + " (LIKE " + table.getTableName() + " INCLUDING DEFAULTS)");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies the staged rows into the import tables atomically.
+     */
+    public void switchIn() {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.execute("TRUNCATE " + Arrays.stream(ImportTable.values())
+                    .map(ImportTable::getTableName)
+                    .collect(Collectors.joining(", ")) + " CASCADE");
+            for (ImportTable table : ImportTable.values()) {
+                String columns = String.join(", ", table.getColumns());
+                stmt.execute("INSERT INTO " + table.getTableName() + " (" + columns + ") SELECT " + columns
+                        + " FROM " + nameOf(table));
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        log.info("Switched staging tables in within {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public void drop() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + Arrays.stream(ImportTable.values())
+                    .map(StagingTables::nameOf)
+                    .collect(Collectors.joining(", ")));
+        } catch (SQLException e) {
+            log.error("Failed to drop staging tables", e);
+        }
+    }
+}
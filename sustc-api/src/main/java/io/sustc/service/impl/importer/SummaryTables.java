@@ -0,0 +1,190 @@
+package io.sustc.service.impl.importer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Precomputed per-user and per-video counters read by the online queries:
+ * <ul>
+ *   <li>{@code user_stats}: follower and following counts</li>
+ *   <li>{@code video_stats}: danmu count, view count, sum of watched seconds and number of finished views</li>
+ *   <li>{@code video_danmu_chunk}: danmu count per {@value ImportAggregates#HOTSPOT_CHUNK_SECONDS}-second chunk</li>
+ * </ul>
+ * They are created with their row triggers on {@code follow}, {@code danmu} and {@code view} on startup, and again
+ * after a {@link DatabaseReset.Mode#TEMPLATE} reset, so the online queries find them in a database nothing was ever
+ * imported into. The import bulk-loads them like any other {@link ImportTable}, with the triggers detached, as it
+ * already writes the final counts.
+ * <p>
+ * Once attached, the triggers fire on every online insert and delete of those tables, so each follow, danmu and
+ * view written by the services also upserts one or two summary rows in the same transaction. Concurrent writes to
+ * the same user or video serialize on its summary row.
+ */
+@Component
+@Slf4j
+public class SummaryTables implements InitializingBean {
+
+    private static final String CREATE_TABLES = """
+            CREATE TABLE IF NOT EXISTS user_stats (
+                mid             BIGINT PRIMARY KEY REFERENCES users (mid) ON DELETE CASCADE,
+                follower_count  INTEGER NOT NULL DEFAULT 0,
+                following_count INTEGER NOT NULL DEFAULT 0
+            );
+            CREATE TABLE IF NOT EXISTS video_stats (
+                bv                  VARCHAR PRIMARY KEY REFERENCES video (bv) ON DELETE CASCADE,
+                danmu_count         INTEGER          NOT NULL DEFAULT 0,
+                view_count          INTEGER          NOT NULL DEFAULT 0,
+                view_time_sum       DOUBLE PRECISION NOT NULL DEFAULT 0,
+                finished_view_count INTEGER          NOT NULL DEFAULT 0
+            );
+            CREATE TABLE IF NOT EXISTS video_danmu_chunk (
+                bv          VARCHAR REFERENCES video (bv) ON DELETE CASCADE,
+                chunk       INTEGER,
+                danmu_count INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY (bv, chunk)
+            );
+            """;
+
+    private static final String CREATE_FUNCTIONS = """
+            CREATE OR REPLACE FUNCTION summary_follow() RETURNS trigger
+                LANGUAGE plpgsql
+            AS $$
+            BEGIN
+                IF TG_OP = 'INSERT' THEN
+                    INSERT INTO user_stats AS s (mid, follower_count) VALUES (NEW.following_mid, 1)
+                    ON CONFLICT (mid) DO UPDATE SET follower_count = s.follower_count + 1;
+                    INSERT INTO user_stats AS s (mid, following_count) VALUES (NEW.follower_mid, 1)
+                    ON CONFLICT (mid) DO UPDATE SET following_count = s.following_count + 1;
+                ELSE
+                    UPDATE user_stats SET follower_count = follower_count - 1 WHERE mid = OLD.following_mid;
+                    UPDATE user_stats SET following_count = following_count - 1 WHERE mid = OLD.follower_mid;
+                END IF;
+                RETURN NULL;
+            END;
+            $$;
+
+            CREATE OR REPLACE FUNCTION summary_danmu() RETURNS trigger
+                LANGUAGE plpgsql
+            AS $$
+            BEGIN
+                IF TG_OP = 'INSERT' THEN
+                    INSERT INTO video_stats AS s (bv, danmu_count) VALUES (NEW.bv, 1)
+                    ON CONFLICT (bv) DO UPDATE SET danmu_count = s.danmu_count + 1;
+                    IF NEW.time >= 0 THEN
+                        INSERT INTO video_danmu_chunk AS c (bv, chunk, danmu_count)
+                        VALUES (NEW.bv, floor(NEW.time / %1$d), 1)
+                        ON CONFLICT (bv, chunk) DO UPDATE SET danmu_count = c.danmu_count + 1;
+                    END IF;
+                ELSE
+                    UPDATE video_stats SET danmu_count = danmu_count - 1 WHERE bv = OLD.bv;
+                    UPDATE video_danmu_chunk SET danmu_count = danmu_count - 1
+                    WHERE bv = OLD.bv AND chunk = floor(OLD.time / %1$d);
+                END IF;
+                RETURN NULL;
+            END;
+            $$;
+
+            CREATE OR REPLACE FUNCTION summary_view() RETURNS trigger
+                LANGUAGE plpgsql
+            AS $$
+            BEGIN
+                IF TG_OP = 'INSERT' THEN
+                    INSERT INTO video_stats AS s (bv, view_count, view_time_sum, finished_view_count)
+                    SELECT v.bv, 1, NEW.last_watch_time_duration, (NEW.last_watch_time_duration >= v.duration)::int
+                    FROM video v
+                    WHERE v.bv = NEW.video_bv
+                    ON CONFLICT (bv) DO UPDATE SET view_count          = s.view_count + 1,
+                                                   view_time_sum       = s.view_time_sum + excluded.view_time_sum,
+                                                   finished_view_count = s.finished_view_count + excluded.finished_view_count;
+                ELSE
+                    UPDATE video_stats s
+                    SET view_count          = s.view_count - 1,
+                        view_time_sum       = s.view_time_sum - OLD.last_watch_time_duration,
+                        finished_view_count = s.finished_view_count - (OLD.last_watch_time_duration >= v.duration)::int
+                    FROM video v
+                    WHERE s.bv = OLD.video_bv
+                      AND v.bv = OLD.video_bv;
+                END IF;
+                RETURN NULL;
+            END;
+            $$;
+            """.formatted(ImportAggregates.HOTSPOT_CHUNK_SECONDS);
+
+    /**
+     * Trigger name, which is also the name of its function, and the table it is attached to.
+     */
+    private static final String[][] TRIGGERS = {
+            {"summary_follow", "follow"},
+            {"summary_danmu", "danmu"},
+            {"summary_view", "view"},
+    };
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Override
+    public void afterPropertiesSet() {
+        install();
+    }
+
+    /**
+     * Creates the summary tables if needed and (re)attaches their triggers, in one transaction.
+     * Tables created next to existing rows start empty, and only count what is written from now on.
+     */
+    public void install() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.execute(CREATE_TABLES);
+            createTriggers(stmt);
+            conn.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to create the summary tables, is the schema in place?", e);
+        }
+    }
+
+    /**
+     * Detaches the triggers of the summary tables for the duration of an import.
+     */
+    public void prepare() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            for (String[] trigger : TRIGGERS) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + trigger[0] + " ON " + trigger[1]);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * (Re)attaches the triggers maintaining the summary tables.
+     */
+    public void attachTriggers() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            createTriggers(stmt);
+            conn.commit();
+        } catch (SQLException e) {
+            log.error("Failed to attach the summary triggers, the summary tables will go stale", e);
+        }
+    }
+
+    private static void createTriggers(Statement stmt) throws SQLException {
+        stmt.execute(CREATE_FUNCTIONS);
+        for (String[] trigger : TRIGGERS) {
+            stmt.execute("DROP TRIGGER IF EXISTS " + trigger[0] + " ON " + trigger[1]);
+            stmt.execute("CREATE TRIGGER " + trigger[0] + " AFTER INSERT OR DELETE ON " + trigger[1]
+                    + " FOR EACH ROW EXECUTE FUNCTION " + trigger[0] + "()");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.sustc.service.impl.importer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * {@code COPY ... FROM STDIN} in text format, rows are encoded on the fly.
+ */
+@Component
+public class TextCopySink implements ImportSink {
+
+    public static final String NAME = "copy";
+
+    @Autowired
+    private ImportProperties properties;
+
+    @Autowired
+    private CopyBufferPool bufferPool;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public RowWriter open(Connection conn, ImportTable table, String relation) throws SQLException {
+        return new TextCopyWriter(CopyTarget.copyIn(conn, table.copySql(relation)), bufferPool,
+                properties.getCopyBufferSize());
+    }
+}
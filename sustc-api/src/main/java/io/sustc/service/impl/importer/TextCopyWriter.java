@@ -0,0 +1,196 @@
+package io.sustc.service.impl.importer;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.TimeZone;
+
+/**
+ * Encodes rows in the text format of {@code COPY ... FROM STDIN}.
+ * <p>
+ * Fields are escaped and UTF-8 encoded straight into a {@link CopyBuffer}, which is handed to the
+ * {@link CopyTarget} whenever it grows beyond {@code bufferSize}. Integers, strings, timestamps and integral floats
+ * are encoded without allocating. Other floats still go through {@link Float#toString(float)}, as printing their
+ * shortest round-tripping form is not worth reimplementing here; {@link BinaryCopyWriter} avoids that altogether.
+ */
+class TextCopyWriter implements RowWriter {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final CopyTarget target;
+
+    private final int bufferSize;
+
+    private final CopyBuffer buf;
+
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    private boolean rowStart = true;
+
+    private long rows;
+
+    TextCopyWriter(CopyTarget target, CopyBufferPool pool, int bufferSize) {
+        this.target = target;
+        this.bufferSize = bufferSize;
+        this.buf = new CopyBuffer(pool, bufferSize + 1024);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        startField();
+        buf.putDecimal(value);
+    }
+
+    @Override
+    public void writeInt(int value) {
+        writeLong(value);
+    }
+
+    @Override
+    public void writeShort(short value) {
+        writeLong(value);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+        if (!writeIntegral(value)) {
+            writeAscii(Float.toString(value));
+        }
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        if (!writeIntegral(value)) {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    @Override
+    public void writeString(String value) {
+        if (value == null) {
+            writeNull();
+        } else {
+            startField();
+            buf.putUtf8(value, true);
+        }
+    }
+
+    @Override
+    public void writeTimestamp(Timestamp value) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        // timestamp without time zone holds the wall-clock time, as Timestamp#toString would print it
+        long localMillis = value.getTime() + timeZone.getOffset(value.getTime());
+        long days = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(localMillis, MILLIS_PER_DAY);
+
+        // proleptic Gregorian date of the day, see https://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 1 || year > 9999) {
+            writeAscii(value.toString());
+            return;
+        }
+
+        startField();
+        buf.putDigits(year, 4);
+        buf.putByte('-');
+        buf.putDigits(month, 2);
+        buf.putByte('-');
+        buf.putDigits(day, 2);
+        buf.putByte(' ');
+        buf.putDigits(millisOfDay / 3_600_000, 2);
+        buf.putByte(':');
+        buf.putDigits(millisOfDay / 60_000 % 60, 2);
+        buf.putByte(':');
+        buf.putDigits(millisOfDay / 1000 % 60, 2);
+        int nanos = value.getNanos();
+        if (nanos != 0) {
+            int width = 9;
+            while (nanos % 10 == 0) {
+                nanos /= 10;
+                width--;
+            }
+            buf.putByte('.');
+            buf.putDigits(nanos, width);
+        }
+    }
+
+    @Override
+    public void writeNull() {
+        writeAscii("\\N");
+    }
+
+    @Override
+    public void endRow() throws SQLException {
+        buf.putByte('\n');
+        rowStart = true;
+        rows++;
+        if (buf.size() >= bufferSize) {
+            buf.flushTo(target);
+        }
+    }
+
+    @Override
+    public void finish() throws SQLException {
+        buf.endTo(target);
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public long getByteCount() {
+        return buf.getFlushedBytes();
+    }
+
+    @Override
+    public LatencyHistogram getFlushLatencies() {
+        return buf.getFlushLatencies();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            target.cancel();
+        } finally {
+            buf.release();
+        }
+    }
+
+    private void startField() {
+        if (rowStart) {
+            rowStart = false;
+        } else {
+            buf.putByte('\t');
+        }
+    }
+
+    /**
+     * Writes {@code value} like a long if it is integral, which parses back to the same float or double.
+     */
+    private boolean writeIntegral(double value) {
+        // -0.0 would lose its sign
+        if (value != (long) value || Math.abs(value) >= 0x1p62 || value == 0 && 1 / value < 0) {
+            return false;
+        }
+        startField();
+        buf.putDecimal((long) value);
+        return true;
+    }
+
+    private void writeAscii(String s) {
+        startField();
+        buf.putAscii(s);
+    }
+}
@@ -0,0 +1,74 @@
+package io.sustc.service.impl.importer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code INSERT ... SELECT * FROM unnest(...)} with one array parameter per column, for connections that do not
+ * let COPY through while still shipping thousands of rows per statement.
+ */
+@Component
+public class UnnestSink implements ImportSink {
+
+    public static final String NAME = "unnest";
+
+    @Autowired
+    private ImportProperties properties;
+
+    /**
+     * The column types of each relation loaded so far, in the order of {@link ImportTable#getColumns()}.
+     */
+    private final Map<String, String[]> columnTypes = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public RowWriter open(Connection conn, ImportTable table, String relation) throws SQLException {
+        String[] types = columnTypes.get(relation);
+        if (types == null) {
+            types = lookUpColumnTypes(conn, table, relation);
+            columnTypes.put(relation, types);
+        }
+        return new UnnestWriter(conn, table, relation, types, properties.getUnnestBatchSize());
+    }
+
+    /**
+     * Reads the type names of the columns from the catalog, as the arrays bound to them must have these types.
+     */
+    private static String[] lookUpColumnTypes(Connection conn, ImportTable table, String relation)
+            throws SQLException {
+        Map<String, String> types = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT a.attname, t.typname FROM pg_attribute a JOIN pg_type t ON t.oid = a.atttypid "
+                        + "WHERE a.attrelid = ?::regclass AND a.attnum > 0 AND NOT a.attisdropped")) {
+            stmt.setString(1, relation);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    types.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+        String[] columns = table.getColumns();
+        String[] result = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            // the columns are declared unquoted, hence stored in lower case
+            result[i] = types.get(columns[i].toLowerCase(Locale.ROOT));
+            if (result[i] == null) {
+                throw new SQLException("Column " + columns[i] + " not found in " + relation);
+            }
+        }
+        return result;
+    }
+}
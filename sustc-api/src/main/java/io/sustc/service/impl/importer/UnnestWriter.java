@@ -0,0 +1,349 @@
+package io.sustc.service.impl.importer;
+
+import org.postgresql.PGConnection;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Loads rows with {@code INSERT ... SELECT * FROM unnest(?, ...)}, binding the pending rows column by column as
+ * one array per column and flushing every {@code batchSize} rows.
+ * <p>
+ * The statement stays the same for every flush, so the server plans it once however many rows it carries, and
+ * the arrays of numeric columns without nulls are bound from primitive arrays the driver sends in binary. Other
+ * arrays go through the driver's text representation.
+ */
+class UnnestWriter implements RowWriter {
+
+    private final Connection conn;
+
+    private final PreparedStatement stmt;
+
+    private final Column[] columns;
+
+    private final int batchSize;
+
+    private final LatencyHistogram flushLatencies = new LatencyHistogram();
+
+    private int column;
+
+    private int pending;
+
+    private long rows;
+
+    private long bytes;
+
+    /**
+     * @param elementTypes the type name of each column of {@code table}, e.g. {@code int8}, as the element types of
+     *                     the arrays bound to it
+     */
+    UnnestWriter(Connection conn, ImportTable table, String relation, String[] elementTypes, int batchSize)
+            throws SQLException {
+        this.conn = conn;
+        this.stmt = conn.prepareStatement(table.unnestSql(relation));
+        this.batchSize = Math.max(1, batchSize);
+        this.columns = new Column[elementTypes.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(elementTypes[i], this.batchSize);
+        }
+    }
+
+    @Override
+    public void writeLong(long value) throws SQLException {
+        columns[column++].putLong(pending, value);
+        bytes += 8;
+    }
+
+    @Override
+    public void writeInt(int value) throws SQLException {
+        columns[column++].putLong(pending, value);
+        bytes += 4;
+    }
+
+    @Override
+    public void writeShort(short value) throws SQLException {
+        columns[column++].putLong(pending, value);
+        bytes += 2;
+    }
+
+    @Override
+    public void writeFloat(float value) throws SQLException {
+        columns[column++].putFloat(pending, value);
+        bytes += 4;
+    }
+
+    @Override
+    public void writeDouble(double value) throws SQLException {
+        columns[column++].putDouble(pending, value);
+        bytes += 8;
+    }
+
+    @Override
+    public void writeString(String value) {
+        columns[column++].putObject(pending, value);
+        if (value != null) {
+            bytes += CopyBuffer.utf8Length(value);
+        }
+    }
+
+    @Override
+    public void writeTimestamp(Timestamp value) {
+        columns[column++].putObject(pending, value);
+        bytes += 8;
+    }
+
+    @Override
+    public void writeNull() {
+        columns[column++].putNull(pending);
+    }
+
+    @Override
+    public void endRow() throws SQLException {
+        column = 0;
+        rows++;
+        if (++pending >= batchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void finish() throws SQLException {
+        if (pending > 0) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        long start = System.nanoTime();
+        Array[] arrays = new Array[columns.length];
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                Object values = columns[i].toArray(pending);
+                arrays[i] = values instanceof Object[] objects
+                        ? conn.createArrayOf(columns[i].type, objects)
+                        : conn.unwrap(PGConnection.class).createArrayOf(columns[i].type, values);
+                stmt.setArray(i + 1, arrays[i]);
+            }
+            stmt.executeUpdate();
+        } finally {
+            for (Array array : arrays) {
+                if (array != null) {
+                    array.free();
+                }
+            }
+        }
+        flushLatencies.record(System.nanoTime() - start);
+        for (Column c : columns) {
+            c.clear(pending);
+        }
+        pending = 0;
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public long getByteCount() {
+        return bytes;
+    }
+
+    @Override
+    public LatencyHistogram getFlushLatencies() {
+        return flushLatencies;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        stmt.close();
+    }
+
+    /**
+     * The values of one column for the pending rows. Numbers bound to a column of one of the {@link #NUMERIC_TYPES}
+     * are converted to the column's type as they are put, like the server's assignment casts would, and kept as the
+     * raw bits of that type until the array is built. Numbers bound to any other type, e.g. {@code numeric} or a
+     * domain, are boxed and go through the driver's text representation.
+     */
+    static class Column {
+
+        private static final Set<String> NUMERIC_TYPES = Set.of("int8", "int4", "int2", "float4", "float8");
+
+        private final String type;
+
+        private final boolean numeric;
+
+        private final int capacity;
+
+        private long[] numbers;
+
+        private Object[] objects;
+
+        private boolean[] nulls;
+
+        private boolean hasNulls;
+
+        Column(String type, int capacity) {
+            this.type = type;
+            this.numeric = NUMERIC_TYPES.contains(type);
+            this.capacity = capacity;
+        }
+
+        void putLong(int row, long value) throws SQLException {
+            if (!numeric) {
+                putObject(row, value);
+                return;
+            }
+            switch (type) {
+                case "float4" -> putNumber(row, Float.floatToIntBits(value));
+                case "float8" -> putNumber(row, Double.doubleToLongBits(value));
+                default -> putNumber(row, checkRange(value));
+            }
+        }
+
+        void putFloat(int row, float value) throws SQLException {
+            if (numeric) {
+                // widening is exact, so a float4 column gets the very same float back
+                putDouble(row, value);
+            } else {
+                putObject(row, value);
+            }
+        }
+
+        void putDouble(int row, double value) throws SQLException {
+            if (!numeric) {
+                putObject(row, value);
+                return;
+            }
+            switch (type) {
+                case "float4" -> putNumber(row, Float.floatToIntBits((float) value));
+                case "float8" -> putNumber(row, Double.doubleToLongBits(value));
+                default -> {
+                    // integer columns round half to even, like a float8 to int8 cast
+                    double rounded = Math.rint(value);
+                    if (!(rounded >= -0x1p63 && rounded < 0x1p63)) {
+                        throw outOfRange(value);
+                    }
+                    putNumber(row, checkRange((long) rounded));
+                }
+            }
+        }
+
+        private long checkRange(long value) throws SQLException {
+            boolean fits = switch (type) {
+                case "int4" -> value == (int) value;
+                case "int2" -> value == (short) value;
+                default -> true;
+            };
+            if (!fits) {
+                throw outOfRange(value);
+            }
+            return value;
+        }
+
+        private SQLException outOfRange(Object value) {
+            return new SQLException("Value " + value + " out of range for type " + type, "22003");
+        }
+
+        private void putNumber(int row, long bits) {
+            if (numbers == null) {
+                numbers = new long[capacity];
+            }
+            numbers[row] = bits;
+        }
+
+        void putObject(int row, Object value) {
+            if (objects == null) {
+                objects = new Object[capacity];
+            }
+            objects[row] = value;
+            if (value == null) {
+                putNull(row);
+            }
+        }
+
+        void putNull(int row) {
+            if (nulls == null) {
+                nulls = new boolean[capacity];
+            }
+            nulls[row] = true;
+            hasNulls = true;
+        }
+
+        void clear(int rows) {
+            if (objects != null) {
+                // let go of the strings and timestamps of the flushed rows
+                Arrays.fill(objects, 0, rows, null);
+            }
+            if (hasNulls) {
+                Arrays.fill(nulls, 0, rows, false);
+                hasNulls = false;
+            }
+        }
+
+        /**
+         * The first {@code rows} values, as a primitive array when the column is numeric and has no nulls.
+         */
+        Object toArray(int rows) {
+            if (numeric) {
+                return hasNulls ? boxed(rows) : primitive(rows);
+            }
+            return objects == null ? new Object[rows] : Arrays.copyOf(objects, rows);
+        }
+
+        private Object primitive(int rows) {
+            if (type.equals("int8")) {
+                return Arrays.copyOf(numbers, rows);
+            }
+            if (type.equals("int4")) {
+                int[] values = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    values[i] = (int) numbers[i];
+                }
+                return values;
+            }
+            if (type.equals("int2")) {
+                short[] values = new short[rows];
+                for (int i = 0; i < rows; i++) {
+                    values[i] = (short) numbers[i];
+                }
+                return values;
+            }
+            if (type.equals("float4")) {
+                float[] values = new float[rows];
+                for (int i = 0; i < rows; i++) {
+                    values[i] = Float.intBitsToFloat((int) numbers[i]);
+                }
+                return values;
+            }
+            double[] values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = Double.longBitsToDouble(numbers[i]);
+            }
+            return values;
+        }
+
+        private Object[] boxed(int rows) {
+            Object[] values = new Object[rows];
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i]) {
+                    continue;
+                }
+                long bits = numbers[i];
+                values[i] = switch (type) {
+                    case "int8" -> bits;
+                    case "int4" -> (int) bits;
+                    case "int2" -> (short) bits;
+                    case "float4" -> Float.intBitsToFloat((int) bits);
+                    default -> Double.longBitsToDouble(bits);
+                };
+            }
+            return values;
+        }
+    }
+}
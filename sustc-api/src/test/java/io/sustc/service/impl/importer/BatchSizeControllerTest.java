@@ -0,0 +1,82 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchSizeControllerTest {
+
+    @Test
+    void clampsTheInitialSizeToTheBounds() {
+        assertEquals(10, new BatchSizeController(1, 10, 100).getSize());
+        assertEquals(100, new BatchSizeController(1_000, 10, 100).getSize());
+        // a non-positive minimum still leaves batches of one row, a maximum below it is raised
+        assertEquals(1, new BatchSizeController(0, 0, 100).getSize());
+        assertEquals(50, new BatchSizeController(10, 50, 20).getSize());
+    }
+
+    @Test
+    void adjustsOnlyAfterEnoughFlushes() {
+        BatchSizeController controller = new BatchSizeController(100, 10, 10_000);
+        for (int i = 0; i < 3; i++) {
+            controller.record(100, 1_000_000);
+            assertEquals(100, controller.getSize());
+        }
+        controller.record(100, 1_000_000);
+
+        assertEquals(200, controller.getSize());
+    }
+
+    @Test
+    void growsWhileThroughputImproves() {
+        BatchSizeController controller = new BatchSizeController(100, 10, 10_000);
+
+        flush(controller, 4, 0);
+        assertEquals(200, controller.getSize());
+        flush(controller, 4, 0);
+        assertEquals(400, controller.getSize());
+        flush(controller, 4, 0);
+        assertEquals(800, controller.getSize());
+    }
+
+    @Test
+    void settlesAroundTheFastestSize() {
+        // throughput peaks a little above 800 rows, beyond which the batches get quadratically slower
+        BatchSizeController controller = new BatchSizeController(100, 10, 10_000);
+        flush(controller, 100, 800);
+
+        for (int i = 0; i < 25; i++) {
+            flush(controller, 4, 800);
+            int size = controller.getSize();
+            assertTrue(size >= 600 && size <= 1_000, "size drifted to " + size);
+        }
+    }
+
+    @Test
+    void turnsAroundAtTheMaximum() {
+        BatchSizeController controller = new BatchSizeController(100, 10, 1_000);
+        flush(controller, 16, 0);
+        assertEquals(1_000, controller.getSize());
+
+        // pinned at the bound, it probes smaller batches instead of staying there
+        int smallest = controller.getSize();
+        for (int i = 0; i < 4; i++) {
+            flush(controller, 4, 0);
+            smallest = Math.min(smallest, controller.getSize());
+        }
+        assertTrue(smallest < 1_000);
+    }
+
+    /**
+     * Records {@code flushes} batches of the current size costing a fixed overhead and a fixed time per row, plus a
+     * quadratic penalty for every row beyond {@code knee} unless it is {@code 0}.
+     */
+    private static void flush(BatchSizeController controller, int flushes, int knee) {
+        for (int i = 0; i < flushes; i++) {
+            int rows = controller.getSize();
+            long excess = knee > 0 ? Math.max(0, rows - knee) : 0;
+            controller.record(rows, 1_000_000L + rows * 1_000L + excess * excess * 50L);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CopyBufferTest {
+
+    @Test
+    void putDecimalMatchesLongToString() {
+        long[] values = {0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        for (long value : values) {
+            CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 1);
+            buf.putDecimal(value);
+            assertEquals(Long.toString(value), contents(buf));
+        }
+    }
+
+    @Test
+    void putDigitsPadsWithZeros() {
+        CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 16);
+        buf.putDigits(7, 2);
+        buf.putDigits(2023, 4);
+        buf.putDigits(120, 9);
+
+        assertEquals("072023000000120", contents(buf));
+    }
+
+    @Test
+    void putUtf8MatchesTheJdkEncoder() {
+        // one, two, three and four bytes per character, and the boundaries between them
+        String[] values = {"", "plain", "\u5f39\u5e55", "caf\u00e9", "emoji \ud83d\ude00 end",
+                "\u0000\u007f\u0080\u07ff\u0800\uffff"};
+        for (String value : values) {
+            CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 1);
+            buf.putUtf8(value, false);
+            assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), bytes(buf));
+            assertEquals(value.getBytes(StandardCharsets.UTF_8).length, CopyBuffer.utf8Length(value));
+        }
+    }
+
+    @Test
+    void putUtf8EscapesTheTextFormatSpecials() {
+        CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 1);
+        buf.putUtf8("a\\b\tc\nd\re", true);
+
+        assertEquals("a\\\\b\\tc\\nd\\re", contents(buf));
+    }
+
+    @Test
+    void putUtf8ReplacesLoneSurrogates() {
+        CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 1);
+        buf.putUtf8("x\ud83dy\ude00", false);
+
+        assertEquals("x?y?", contents(buf));
+    }
+
+    @Test
+    void patchesLengthPrefixes() {
+        CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 1);
+        buf.putInt(0);
+        buf.putUtf8("abc", false);
+        buf.putIntAt(0, 3);
+
+        assertArrayEquals(new byte[]{0, 0, 0, 3, 'a', 'b', 'c'}, bytes(buf));
+    }
+
+    @Test
+    void flushesAndCountsBytes() throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CopyBuffer buf = new CopyBuffer(new CopyBufferPool(), 4);
+        buf.putUtf8("hello", false);
+        buf.flushTo(target(out));
+        buf.putUtf8(" world", false);
+        buf.endTo(target(out));
+
+        assertEquals("hello world", out.toString(StandardCharsets.UTF_8));
+        assertEquals(11, buf.getFlushedBytes());
+        assertEquals(0, buf.size());
+        // both flushes and the end of the stream
+        assertEquals(3, buf.getFlushLatencies().getCount());
+    }
+
+    private static String contents(CopyBuffer buf) {
+        return new String(bytes(buf), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(CopyBuffer buf) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            buf.flushTo(target(out));
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static CopyTarget target(ByteArrayOutputStream out) {
+        return new CopyTarget() {
+            @Override
+            public void write(byte[] buf, int off, int len) {
+                out.write(buf, off, len);
+            }
+
+            @Override
+            public void end() {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+}
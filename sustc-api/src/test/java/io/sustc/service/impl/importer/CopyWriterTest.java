@@ -0,0 +1,125 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CopyWriterTest {
+
+    @Test
+    void textWriterEncodesFieldsAndRows() throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TextCopyWriter writer = new TextCopyWriter(CopyBufferTest.target(out), new CopyBufferPool(), 1024);
+
+        writer.writeLong(-12);
+        writer.writeString("tab\there \u5f39\u5e55");
+        writer.writeNull();
+        writer.endRow();
+        writer.writeShort((short) 3);
+        writer.writeString(null);
+        writer.endRow();
+        writer.finish();
+
+        assertEquals("-12\ttab\\there \u5f39\u5e55\t\\N\n3\t\\N\n", out.toString(StandardCharsets.UTF_8));
+        assertEquals(2, writer.getRowCount());
+        assertEquals(out.size(), writer.getByteCount());
+    }
+
+    @Test
+    void textWriterPrintsTimestampsLikeTimestampToString() throws SQLException {
+        String[] values = {"2023-10-18 09:05:03.12", "1999-12-31 23:59:59.999999999", "1970-01-01 00:00:00",
+                "2000-02-29 12:00:00.000001", "1965-07-04 01:02:03.5"};
+        for (String value : values) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TextCopyWriter writer = new TextCopyWriter(CopyBufferTest.target(out), new CopyBufferPool(), 1024);
+            writer.writeTimestamp(Timestamp.valueOf(value));
+            writer.endRow();
+            writer.finish();
+
+            assertEquals(value + "\n", out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void textWriterPrintsFloatsThatParseBack() throws SQLException {
+        float[] values = {0f, -0f, 3f, -12f, 1.5f, 0.1f, 1e10f, 16777216f, -1e20f, Float.NaN,
+                Float.NEGATIVE_INFINITY};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TextCopyWriter writer = new TextCopyWriter(CopyBufferTest.target(out), new CopyBufferPool(), 1024);
+        for (float value : values) {
+            writer.writeFloat(value);
+        }
+        writer.endRow();
+        writer.finish();
+
+        String[] fields = out.toString(StandardCharsets.UTF_8).trim().split("\t");
+        assertEquals(values.length, fields.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Float.floatToIntBits(values[i]), Float.floatToIntBits(Float.parseFloat(fields[i])),
+                    fields[i]);
+        }
+        // integral values print without a fraction
+        assertEquals("3", fields[2]);
+        assertEquals("-0.0", fields[1]);
+    }
+
+    @Test
+    void binaryWriterFramesRowsWithHeaderAndTrailer() throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // two columns, as follow has
+        BinaryCopyWriter writer = new BinaryCopyWriter(CopyBufferTest.target(out), new CopyBufferPool(),
+                ImportTable.FOLLOW, 1024);
+
+        writer.writeLong(7);
+        writer.writeInt(-1);
+        writer.endRow();
+        writer.writeShort((short) 2);
+        writer.writeNull();
+        writer.endRow();
+        writer.finish();
+
+        ByteBuffer expected = ByteBuffer.allocate(out.size())
+                .put("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1))
+                .putInt(0)
+                .putInt(0)
+                .putShort((short) 2).putInt(8).putLong(7).putInt(4).putInt(-1)
+                .putShort((short) 2).putInt(2).putShort((short) 2).putInt(-1)
+                .putShort((short) -1);
+        assertEquals(expected.capacity(), expected.position());
+        assertArrayEquals(expected.array(), out.toByteArray());
+        assertEquals(2, writer.getRowCount());
+    }
+
+    @Test
+    void binaryWriterEncodesFloatsStringsAndTimestamps() throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCopyWriter writer = new BinaryCopyWriter(CopyBufferTest.target(out), new CopyBufferPool(),
+                ImportTable.FOLLOW, 1024);
+
+        writer.writeFloat(1.5f);
+        writer.writeString("\u5f39\u5e55");
+        writer.endRow();
+        writer.writeTimestamp(Timestamp.valueOf("2000-01-01 00:00:01.5"));
+        writer.writeDouble(-0.25);
+        writer.endRow();
+        writer.finish();
+
+        byte[] utf8 = "\u5f39\u5e55".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer expected = ByteBuffer.allocate(out.size() - 19)
+                .putShort((short) 2).putInt(4).putFloat(1.5f).putInt(utf8.length).put(utf8)
+                // microseconds since 2000-01-01 in wall-clock time
+                .putShort((short) 2).putInt(8).putLong(1_500_000).putInt(8).putDouble(-0.25)
+                .putShort((short) -1);
+        assertEquals(expected.capacity(), expected.position());
+        byte[] rows = Arrays.copyOfRange(out.toByteArray(), 19, out.size());
+        assertArrayEquals(expected.array(), rows);
+    }
+}
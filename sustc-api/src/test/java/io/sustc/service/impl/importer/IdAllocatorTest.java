@@ -0,0 +1,185 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IdAllocatorTest {
+
+    @Test
+    void blocksNumberItemsByIndex() {
+        // two non-adjacent blocks of three, as another instance reserved the block in between
+        IdAllocator.Blocks blocks = new IdAllocator.Blocks(3, new long[]{3, 9});
+
+        assertEquals(1, blocks.id(0));
+        assertEquals(3, blocks.id(2));
+        assertEquals(7, blocks.id(3));
+        assertEquals(9, blocks.id(5));
+    }
+
+    @Test
+    void handsOutEveryIdOfABlockBeforeReservingTheNext() {
+        FakeSequence sequence = new FakeSequence(3);
+        IdAllocator allocator = allocator(sequence);
+
+        for (long id = 1; id <= 7; id++) {
+            assertEquals(id, allocator.next(IdAllocator.Sequence.USER_MID));
+        }
+        assertEquals(3, sequence.nextvals.get());
+    }
+
+    @Test
+    void reservesBlocksForWholeCounts() {
+        FakeSequence sequence = new FakeSequence(4);
+        IdAllocator allocator = allocator(sequence);
+
+        IdAllocator.Blocks blocks = allocator.reserve(IdAllocator.Sequence.DANMU_ID, 9);
+
+        assertEquals(4, blocks.getSize());
+        assertEquals(3, blocks.getEnds().length);
+        assertEquals(1, blocks.id(0));
+        assertEquals(9, blocks.id(8));
+    }
+
+    @Test
+    void concurrentCallersGetUniqueIds() throws Exception {
+        IdAllocator allocator = allocator(new FakeSequence(16));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    List<Long> ids = new ArrayList<>();
+                    for (int i = 0; i < 1_000; i++) {
+                        ids.add(allocator.next(IdAllocator.Sequence.DANMU_ID));
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                ids.addAll(future.get());
+            }
+            assertEquals(8_000, ids.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void clearDropsTheHeldBlock() {
+        FakeSequence sequence = new FakeSequence(10);
+        IdAllocator allocator = allocator(sequence);
+        assertEquals(1, allocator.next(IdAllocator.Sequence.USER_MID));
+
+        // the sequence starts over, e.g. after a reset, and the rest of the old block must not be handed out
+        sequence.value.set(0);
+        allocator.clear();
+
+        assertEquals(1, allocator.next(IdAllocator.Sequence.USER_MID));
+        assertEquals(2, sequence.nextvals.get());
+    }
+
+    private static IdAllocator allocator(FakeSequence sequence) {
+        ImportProperties properties = new ImportProperties();
+        properties.setIdBlockSize(sequence.increment);
+        IdAllocator allocator = new IdAllocator();
+        ReflectionTestUtils.setField(allocator, "dataSource", sequence.dataSource());
+        ReflectionTestUtils.setField(allocator, "properties", properties);
+        return allocator;
+    }
+
+    /**
+     * A single sequence shared by every {@link IdAllocator.Sequence}, answering {@code nextval} and the increment
+     * lookup and accepting any other statement.
+     */
+    private static final class FakeSequence {
+
+        private final int increment;
+
+        private final AtomicLong value = new AtomicLong();
+
+        private final AtomicInteger nextvals = new AtomicInteger();
+
+        FakeSequence(int increment) {
+            this.increment = increment;
+        }
+
+        DataSource dataSource() {
+            Statement statement = proxy(Statement.class, (method, args) -> switch (method) {
+                case "executeQuery" -> resultSet((String) args[0], 1);
+                case "execute" -> true;
+                default -> null;
+            });
+            Connection connection = proxy(Connection.class, (method, args) -> switch (method) {
+                case "createStatement" -> statement;
+                case "prepareStatement" -> preparedStatement((String) args[0]);
+                default -> null;
+            });
+            return proxy(DataSource.class, (method, args) -> method.equals("getConnection") ? connection : null);
+        }
+
+        private Object preparedStatement(String sql) {
+            int[] rows = new int[1];
+            return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+                case "setInt" -> {
+                    rows[0] = (int) args[1];
+                    yield null;
+                }
+                case "executeQuery" -> resultSet(sql, rows[0]);
+                default -> null;
+            });
+        }
+
+        private ResultSet resultSet(String sql, int rows) {
+            int[] row = new int[1];
+            long[] current = new long[1];
+            return proxy(ResultSet.class, (method, args) -> switch (method) {
+                case "next" -> {
+                    if (row[0]++ >= rows) {
+                        yield false;
+                    }
+                    if (sql.contains("nextval")) {
+                        nextvals.incrementAndGet();
+                        current[0] = value.addAndGet(increment);
+                    } else {
+                        current[0] = increment;
+                    }
+                    yield true;
+                }
+                case "getLong" -> current[0];
+                default -> null;
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, Handler handler) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    (proxy, method, args) -> method.getName().equals("close") ? null
+                            : handler.handle(method.getName(), args));
+        }
+
+        @FunctionalInterface
+        private interface Handler {
+
+            Object handle(String method, Object[] args) throws Exception;
+        }
+    }
+}
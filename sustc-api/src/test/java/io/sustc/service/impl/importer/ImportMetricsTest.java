@@ -0,0 +1,47 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.ImportReport;
+import io.sustc.dto.ImportTableReport;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImportMetricsTest {
+
+    @Test
+    void reportsEachTableInTableOrder() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.record(ImportTable.DANMU, "binary-copy", 300, 9_000, 2_000_000_000L, 3_000_000_000L);
+        metrics.record(ImportTable.USERS, "binary-copy", 100, 4_000, 1_000_000_000L, 1_500_000_000L);
+        metrics.recordConnectionWait(ImportTable.USERS, 42);
+        metrics.recordSpill(ImportTable.DANMU, 1_024);
+
+        ImportReport report = metrics.toReport();
+
+        assertEquals(2, report.getTables().size());
+        assertTrue(report.getQueues().isEmpty());
+        ImportTableReport users = report.getTables().get(0);
+        assertEquals(ImportTable.USERS.getTableName(), users.getTable());
+        assertEquals("binary-copy", users.getSink());
+        assertEquals(100, users.getRows());
+        assertEquals(4_000, users.getBytes());
+        assertEquals(500_000_000L, users.getElapsedNanos());
+        assertEquals(200.0, users.getRowsPerSecond(), 1e-9);
+        assertEquals(42, users.getConnectionWaitNanos());
+        ImportTableReport danmu = report.getTables().get(1);
+        assertEquals(ImportTable.DANMU.getTableName(), danmu.getTable());
+        assertEquals(1_024, danmu.getSpilledBytes());
+    }
+
+    @Test
+    void reportIsACopy() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.record(ImportTable.USERS, "jdbc-batch", 10, 0, 0, 1);
+        ImportReport report = metrics.toReport();
+
+        metrics.record(ImportTable.USERS, "jdbc-batch", 10, 0, 0, 1);
+
+        assertEquals(10, report.getTables().get(0).getRows());
+    }
+}
@@ -0,0 +1,36 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImportPropertiesTest {
+
+    @Test
+    void acceptsTheDefaults() {
+        new ImportProperties().afterPropertiesSet();
+    }
+
+    @Test
+    void refusesResumableDeferredLoads() {
+        ImportProperties properties = new ImportProperties();
+        properties.setResumable(true);
+        properties.setDeferConstraints(true);
+
+        assertThrows(IllegalStateException.class, properties::afterPropertiesSet);
+    }
+
+    @Test
+    void refusesValidationWithAHeapBudgetOrAppending() {
+        ImportProperties budgeted = new ImportProperties();
+        budgeted.setValidate(true);
+        budgeted.setHeapBudget(DataSize.ofMegabytes(256));
+        assertThrows(IllegalStateException.class, budgeted::afterPropertiesSet);
+
+        ImportProperties appending = new ImportProperties();
+        appending.setValidate(true);
+        appending.setAppend(true);
+        assertThrows(IllegalStateException.class, appending::afterPropertiesSet);
+    }
+}
@@ -0,0 +1,91 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ImportValidationTest {
+
+    @Test
+    void removesDuplicateAndDanglingRows() {
+        UserRecord first = user(1, 2, 9, 2);
+        UserRecord second = user(2, 1);
+        UserRecord duplicate = user(1);
+        VideoRecord video = video("BV1", 1);
+        VideoRecord orphan = video("BV2", 9);
+        DanmuRecord danmu = danmu("BV1", 2, 1, 1);
+        DanmuRecord lost = danmu("BV2", 1);
+        ImportData data = new ImportData(List.of(danmu, lost), List.of(first, second, duplicate),
+                List.of(video, orphan));
+
+        ImportValidation validation = ImportValidation.run(data);
+
+        assertEquals(2, data.getUserRecords().size());
+        assertEquals(1, data.getVideoRecords().size());
+        assertEquals(1, data.getDanmuRecords().size());
+        assertArrayEquals(new long[]{2}, data.getUserRecords().get(0).getFollowing());
+        assertArrayEquals(new long[]{1}, data.getDanmuRecords().get(0).getLikedBy());
+        assertEquals(1, validation.getRemoved(ImportTable.USERS));
+        assertEquals(2, validation.getRemoved(ImportTable.FOLLOW));
+        assertEquals(1, validation.getRemoved(ImportTable.VIDEO));
+        assertEquals(1, validation.getRemoved(ImportTable.DANMU));
+        assertEquals(1, validation.getRemoved(ImportTable.DANMU_LIKE_BY));
+    }
+
+    @Test
+    void leavesTheRecordsPassedInUntouched() {
+        UserRecord cleaned = user(1, 2, 9);
+        UserRecord valid = user(2, 1);
+        VideoRecord video = video("BV1", 1);
+        video.setViewerMids(new long[]{1, 9, 2});
+        video.setViewTime(new float[]{1, 2, 3});
+        ImportData data = new ImportData(List.of(), List.of(cleaned, valid), List.of(video));
+
+        ImportValidation.run(data);
+
+        assertArrayEquals(new long[]{2, 9}, cleaned.getFollowing());
+        assertArrayEquals(new long[]{1, 9, 2}, video.getViewerMids());
+        // records with nothing to remove are kept as they are, the others are copied
+        assertSame(valid, data.getUserRecords().get(1));
+        assertArrayEquals(new long[]{2}, data.getUserRecords().get(0).getFollowing());
+        assertEquals(cleaned.getMid(), data.getUserRecords().get(0).getMid());
+        VideoRecord copy = data.getVideoRecords().get(0);
+        assertArrayEquals(new long[]{1, 2}, copy.getViewerMids());
+        assertEquals(2, copy.getViewTime().length);
+        assertEquals(3f, copy.getViewTime()[1]);
+    }
+
+    private static UserRecord user(long mid, long... following) {
+        UserRecord user = new UserRecord();
+        user.setMid(mid);
+        user.setFollowing(following);
+        return user;
+    }
+
+    private static VideoRecord video(String bv, long ownerMid) {
+        VideoRecord video = new VideoRecord();
+        video.setBv(bv);
+        video.setOwnerMid(ownerMid);
+        video.setLike(new long[0]);
+        video.setCoin(new long[0]);
+        video.setFavorite(new long[0]);
+        video.setViewerMids(new long[0]);
+        video.setViewTime(new float[0]);
+        return video;
+    }
+
+    private static DanmuRecord danmu(String bv, long mid, long... likedBy) {
+        DanmuRecord danmu = new DanmuRecord();
+        danmu.setBv(bv);
+        danmu.setMid(mid);
+        danmu.setLikedBy(likedBy);
+        return danmu;
+    }
+}
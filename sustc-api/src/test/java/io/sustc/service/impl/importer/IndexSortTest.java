@@ -0,0 +1,97 @@
+package io.sustc.service.impl.importer;
+
+import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.UserRecord;
+import io.sustc.dto.VideoRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IndexSortTest {
+
+    @Test
+    void sortsIndexesByKeyKeepingTiesInOrder() {
+        long[] keys = {5, 3, 5, -1, 3, 0};
+
+        assertArrayEquals(new int[]{3, 5, 1, 4, 0, 2}, IndexSort.byKey(keys));
+        // the keys themselves are left alone
+        assertArrayEquals(new long[]{5, 3, 5, -1, 3, 0}, keys);
+    }
+
+    @Test
+    void sortsEmptyAndSingleElementInputs() {
+        assertArrayEquals(new int[0], IndexSort.byKey(new long[0]));
+        assertArrayEquals(new int[]{0}, IndexSort.byKey(new long[]{42}));
+    }
+
+    @Test
+    void parallelSortMatchesStableSort() {
+        // large enough to be split across the fork-join pool, with many ties
+        Random random = new Random(7);
+        long[] keys = random.longs(100_000, 0, 1000).toArray();
+
+        int[] expected = IntStream.range(0, keys.length).boxed()
+                .sorted(Comparator.comparingLong(i -> keys[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        assertArrayEquals(expected, IndexSort.byKey(keys));
+    }
+
+    @Test
+    void sortByAccessKeyOrdersUsersVideosAndDanmus() {
+        List<UserRecord> users = List.of(user(30), user(10), user(20));
+        List<VideoRecord> videos = List.of(video("BV2"), video("BV1"));
+        List<DanmuRecord> danmus = List.of(
+                danmu("BV2", 1.5f),
+                danmu("BV1", 3f),
+                danmu("BV-unknown", 0f),
+                danmu("BV1", -2f),
+                danmu("BV2", 0.5f));
+        ImportData data = new ImportData(danmus, users, videos);
+
+        data.sortByAccessKey();
+
+        assertArrayEquals(new int[]{1, 2, 0}, positions(users.size(), data::userAt));
+        assertArrayEquals(new int[]{1, 0}, positions(videos.size(), data::videoAt));
+        // by the position of their video, then by time; danmus of unknown videos go last
+        assertArrayEquals(new int[]{3, 1, 4, 0, 2}, positions(danmus.size(), data::danmuAt));
+    }
+
+    @Test
+    void loadsInListOrderUnlessSorted() {
+        ImportData data = new ImportData(List.of(), List.of(user(2), user(1)), List.of());
+
+        assertEquals(0, data.userAt(0));
+        assertEquals(1, data.userAt(1));
+    }
+
+    private static int[] positions(int n, IntUnaryOperator at) {
+        return IntStream.range(0, n).map(at).toArray();
+    }
+
+    private static UserRecord user(long mid) {
+        UserRecord user = new UserRecord();
+        user.setMid(mid);
+        return user;
+    }
+
+    private static VideoRecord video(String bv) {
+        VideoRecord video = new VideoRecord();
+        video.setBv(bv);
+        return video;
+    }
+
+    private static DanmuRecord danmu(String bv, float time) {
+        DanmuRecord danmu = new DanmuRecord();
+        danmu.setBv(bv);
+        danmu.setTime(time);
+        return danmu;
+    }
+}
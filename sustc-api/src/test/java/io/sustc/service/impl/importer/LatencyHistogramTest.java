@@ -0,0 +1,64 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.percentileNanos(0.5));
+        assertEquals(0, histogram.percentileNanos(0.99));
+    }
+
+    @Test
+    void tracksCountTotalAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(3_000);
+        histogram.record(-5);
+
+        assertEquals(3, histogram.getCount());
+        // negative durations, e.g. from a clock adjustment, count as zero
+        assertEquals(3_100, histogram.getTotalNanos());
+        assertEquals(3_000, histogram.getMaxNanos());
+    }
+
+    @Test
+    void percentilesAreUpperBoundsWithinAFactorOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000);
+        }
+        histogram.record(5_000_000);
+
+        long p50 = histogram.percentileNanos(0.5);
+        assertTrue(p50 >= 1_000 && p50 < 2_000, "p50 was " + p50);
+        long p99 = histogram.percentileNanos(0.99);
+        assertTrue(p99 >= 1_000 && p99 < 2_000, "p99 was " + p99);
+        // the bucket bound is capped by the largest value seen
+        assertEquals(5_000_000, histogram.percentileNanos(1.0));
+    }
+
+    @Test
+    void addMergesAnotherHistogram() {
+        LatencyHistogram a = new LatencyHistogram();
+        a.record(10);
+        a.record(20);
+        LatencyHistogram b = new LatencyHistogram();
+        b.record(1_000_000);
+
+        a.add(b);
+
+        assertEquals(3, a.getCount());
+        assertEquals(1_000_030, a.getTotalNanos());
+        assertEquals(1_000_000, a.getMaxNanos());
+        assertEquals(1_000_000, a.percentileNanos(1.0));
+        assertTrue(a.percentileNanos(0.5) < 32);
+    }
+}
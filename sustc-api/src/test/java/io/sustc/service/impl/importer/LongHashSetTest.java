@@ -0,0 +1,72 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashSetTest {
+
+    @Test
+    void addsEachValueOnce() {
+        LongHashSet set = new LongHashSet(4);
+
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.add(-42));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(42));
+        assertTrue(set.contains(-42));
+        assertFalse(set.contains(43));
+    }
+
+    @Test
+    void holdsZeroAlthoughItMarksEmptySlots() {
+        LongHashSet set = new LongHashSet(4);
+        assertFalse(set.contains(0));
+
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void growsBeyondItsExpectedSize() {
+        LongHashSet set = new LongHashSet(1);
+        for (long mid = 1; mid <= 10_000; mid++) {
+            assertTrue(set.add(mid));
+        }
+
+        assertEquals(10_000, set.size());
+        for (long mid = 1; mid <= 10_000; mid++) {
+            assertTrue(set.contains(mid));
+        }
+        assertFalse(set.contains(10_001));
+    }
+
+    @Test
+    void agreesWithHashSet() {
+        Random random = new Random(11);
+        LongHashSet set = new LongHashSet(100);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            // a narrow range, so that many values repeat, and the extremes
+            long value = i % 100 == 0 ? Long.MIN_VALUE : random.nextInt(20_000) - 10_000;
+            assertEquals(expected.add(value), set.add(value));
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (long value = -10_001; value <= 10_001; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(Long.MAX_VALUE));
+    }
+}
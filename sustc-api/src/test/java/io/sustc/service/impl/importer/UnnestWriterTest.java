@@ -0,0 +1,94 @@
+package io.sustc.service.impl.importer;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UnnestWriterTest {
+
+    @Test
+    void longsConvertToEveryNumericType() throws SQLException {
+        assertArrayEquals(new long[]{-3, 1L << 40}, (long[]) longs("int8", -3, 1L << 40));
+        assertArrayEquals(new int[]{-3, 70_000}, (int[]) longs("int4", -3, 70_000));
+        assertArrayEquals(new short[]{-3, 300}, (short[]) longs("int2", -3, 300));
+        assertArrayEquals(new float[]{-3f, 16_777_216f}, (float[]) longs("float4", -3, 16_777_217));
+        assertArrayEquals(new double[]{-3.0, 1e15}, (double[]) longs("float8", -3, 1_000_000_000_000_000L));
+    }
+
+    @Test
+    void floatsConvertToEveryNumericType() throws SQLException {
+        assertArrayEquals(new long[]{2, -2, 0}, (long[]) floats("int8", 1.5f, -2.4f, 0.5f));
+        assertArrayEquals(new int[]{2, -2, 0}, (int[]) floats("int4", 1.5f, -2.4f, 0.5f));
+        assertArrayEquals(new short[]{2, -2, 0}, (short[]) floats("int2", 1.5f, -2.4f, 0.5f));
+        assertArrayEquals(new float[]{1.5f, -2.4f, 0.1f}, (float[]) floats("float4", 1.5f, -2.4f, 0.1f));
+        // the exact value of the float, not its bits read as a double
+        assertArrayEquals(new double[]{1.5, -2.4f, 0.1f}, (double[]) floats("float8", 1.5f, -2.4f, 0.1f));
+    }
+
+    @Test
+    void doublesConvertToEveryNumericType() throws SQLException {
+        assertArrayEquals(new long[]{3, -7}, (long[]) doubles("int8", 2.5000001, -7.4));
+        assertArrayEquals(new int[]{3, -7}, (int[]) doubles("int4", 2.5000001, -7.4));
+        assertArrayEquals(new short[]{3, -7}, (short[]) doubles("int2", 2.5000001, -7.4));
+        assertArrayEquals(new float[]{0.1f, -7.4f}, (float[]) doubles("float4", 0.1, -7.4));
+        assertArrayEquals(new double[]{0.1, -7.4}, (double[]) doubles("float8", 0.1, -7.4));
+    }
+
+    @Test
+    void nullsBoxTheConvertedValues() throws SQLException {
+        UnnestWriter.Column column = new UnnestWriter.Column("float8", 3);
+        column.putLong(0, 5);
+        column.putNull(1);
+        column.putFloat(2, 0.5f);
+
+        assertArrayEquals(new Object[]{5.0, null, 0.5}, (Object[]) column.toArray(3));
+    }
+
+    @Test
+    void otherTypesKeepTheBoxedJavaValue() throws SQLException {
+        UnnestWriter.Column column = new UnnestWriter.Column("numeric", 3);
+        column.putLong(0, 5);
+        column.putFloat(1, 0.1f);
+        column.putDouble(2, 0.1);
+
+        assertArrayEquals(new Object[]{5L, 0.1f, 0.1}, (Object[]) column.toArray(3));
+    }
+
+    @Test
+    void rejectsValuesOutOfRangeOfTheColumn() {
+        SQLException e = assertThrows(SQLException.class, () -> longs("int4", 1L << 31));
+        assertEquals("22003", e.getSQLState());
+        assertThrows(SQLException.class, () -> longs("int2", 40_000));
+        assertThrows(SQLException.class, () -> floats("int8", Float.NaN));
+        assertThrows(SQLException.class, () -> doubles("int8", 1e19));
+        assertThrows(SQLException.class, () -> doubles("int2", 32_767.6));
+    }
+
+    private static Object longs(String type, long... values) throws SQLException {
+        UnnestWriter.Column column = new UnnestWriter.Column(type, values.length);
+        for (int i = 0; i < values.length; i++) {
+            column.putLong(i, values[i]);
+        }
+        return column.toArray(values.length);
+    }
+
+    private static Object floats(String type, float... values) throws SQLException {
+        UnnestWriter.Column column = new UnnestWriter.Column(type, values.length);
+        for (int i = 0; i < values.length; i++) {
+            column.putFloat(i, values[i]);
+        }
+        return column.toArray(values.length);
+    }
+
+    private static Object doubles(String type, double... values) throws SQLException {
+        UnnestWriter.Column column = new UnnestWriter.Column(type, values.length);
+        for (int i = 0; i < values.length; i++) {
+            column.putDouble(i, values[i]);
+        }
+        return column.toArray(values.length);
+    }
+}
@@ -27,4 +27,29 @@ public class BenchmarkConfig {
      * e.g., truncate tables.
      */
     private Boolean studentMode = false;
+
+    /**
+     * Whether to hand the import lists to the service as views decoding the records chunk by chunk on access,
+     * instead of decoding all of them before the import starts. See {@link RecordFiles#readChunked}. The first run
+     * with new data or a new {@code importChunkSize} still decodes each file as a whole to convert it into chunks.
+     */
+    private Boolean streamingImport = false;
+
+    /**
+     * Number of records per chunk when {@code streamingImport} is enabled.
+     */
+    private Integer importChunkSize = 4096;
+
+    /**
+     * Whether to start the import while the record files are still being decoded, so that e.g. the user tables
+     * load while the videos and danmus are decoded. The measured import time then includes the decoding.
+     */
+    private Boolean pipelinedImport = false;
+
+    /**
+     * Directory of the import snapshots. When set, the first import of a dataset is saved there after it succeeds,
+     * and later runs over the same record files restore the snapshot instead of importing them.
+     * See {@link io.sustc.service.ImportSnapshotService}.
+     */
+    private String snapshotPath;
 }
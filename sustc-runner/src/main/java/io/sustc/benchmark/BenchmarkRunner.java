@@ -14,12 +14,14 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.shell.ShellApplicationRunner;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -91,19 +93,40 @@ public class BenchmarkRunner implements ShellApplicationRunner {
                 .collect(Collectors.toList());
 
         val sid = databaseService.getGroupMembers().stream().map(String::valueOf).collect(Collectors.joining("_"));
-        val reportFile = Paths.get(ObjectUtils.defaultIfNull(benchmarkConfig.getReportPath(), ""))
-                .resolve(String.format("benchmark-%s-%d.csv", sid, System.currentTimeMillis()))
+        val timestamp = System.currentTimeMillis();
+        val reportFile = reportFile(String.format("benchmark-%s-%d.csv", sid, timestamp));
+        log.info("Benchmark finished, writing report to file: {}", reportFile);
+        writeCsv(reportFile, results);
+
+        if (!benchmarkService.getImportResults().isEmpty()) {
+            val importReportFile = reportFile(String.format("benchmark-import-%s-%d.csv", sid, timestamp));
+            log.info("Writing import report to file: {}", importReportFile);
+            writeCsv(importReportFile, benchmarkService.getImportResults());
+        }
+
+        if (!benchmarkService.getImportQueueResults().isEmpty()) {
+            val queueReportFile = reportFile(String.format("benchmark-import-queues-%s-%d.csv", sid, timestamp));
+            log.info("Writing import queue report to file: {}", queueReportFile);
+            writeCsv(queueReportFile, benchmarkService.getImportQueueResults());
+        }
+    }
+
+    private File reportFile(String name) {
+        return Paths.get(ObjectUtils.defaultIfNull(benchmarkConfig.getReportPath(), ""))
+                .resolve(name)
                 .toAbsolutePath()
                 .toFile();
+    }
 
-        log.info("Benchmark finished, writing report to file: {}", reportFile);
+    @SneakyThrows
+    private <T> void writeCsv(File file, List<T> beans) {
         @Cleanup val writer = new OutputStreamWriter(
-                Files.newOutputStream(reportFile.toPath()),
+                Files.newOutputStream(file.toPath()),
                 StandardCharsets.UTF_8
         );
-        val beanToCsv = new StatefulBeanToCsvBuilder<BenchmarkResult>(writer)
+        val beanToCsv = new StatefulBeanToCsvBuilder<T>(writer)
                 .withApplyQuotesToAll(false)
                 .build();
-        beanToCsv.write(results);
+        beanToCsv.write(beans);
     }
 }
@@ -5,18 +5,33 @@ import io.fury.ThreadSafeFury;
 import io.fury.config.CompatibleMode;
 import io.fury.config.Language;
 import io.sustc.dto.DanmuRecord;
+import io.sustc.dto.ImportReport;
 import io.sustc.dto.UserRecord;
 import io.sustc.dto.VideoRecord;
 import io.sustc.service.DatabaseService;
+import io.sustc.service.ImportReportService;
+import io.sustc.service.ImportSnapshotService;
+import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -28,10 +43,36 @@ public class BenchmarkService {
     @Autowired
     private DatabaseService databaseService;
 
+    /**
+     * The reports of the importer, absent when the service under test does not measure its imports.
+     */
+    @Autowired
+    private ObjectProvider<ImportReportService> importReports;
+
+    @Autowired
+    private ObjectProvider<ImportSnapshotService> importSnapshots;
+
+    /**
+     * Per-table figures of the last import step, empty if unavailable.
+     */
+    @Getter
+    private List<ImportTableResult> importResults = List.of();
+
+    /**
+     * The queues of the import pipeline during the last import step, empty unless it ran pipelined.
+     */
+    @Getter
+    private List<ImportQueueResult> importQueueResults = List.of();
+
     @BenchmarkStep(order = 1, timeout = 10, description = "Import data")
     @SneakyThrows
     public BenchmarkResult importData() {
         val dataDir = Paths.get(benchmarkConfig.getDataPath(), BenchmarkConstants.IMPORT_DATA_PATH);
+        val snapshots = importSnapshots.getIfAvailable();
+        val snapshotDir = snapshots == null ? null : snapshotDir(snapshots, dataDir);
+        if (snapshotDir != null && snapshots.exists(snapshotDir)) {
+            return restoreSnapshot(snapshots, snapshotDir);
+        }
 
         ThreadSafeFury fury = Fury.builder()
                 .requireClassRegistration(false)
@@ -41,33 +82,114 @@ public class BenchmarkService {
                 .withAsyncCompilation(true)
                 .buildThreadSafeFury();
 
-        FileInputStream danmuStream = new FileInputStream(
-                dataDir.resolve(BenchmarkConstants.DANMU_FILENAME).toString());
-        byte[] danmuBytes = danmuStream.readAllBytes();
-        danmuStream.close();
-        List<DanmuRecord> danmuRecords = (List<DanmuRecord>) fury.deserialize(danmuBytes);
-
-        FileInputStream userSteram = new FileInputStream(dataDir.resolve(BenchmarkConstants.USER_FILENAME).toString());
-        byte[] userBytes = userSteram.readAllBytes();
-        userSteram.close();
-        List<UserRecord> userRecords = (List<UserRecord>) fury.deserialize(userBytes);
+        // the three files are decoded concurrently, users first as every other table references them
+        val decoder = Executors.newFixedThreadPool(3);
+        CompletableFuture<List<UserRecord>> userRecords =
+                readRecordsAsync(fury, dataDir.resolve(BenchmarkConstants.USER_FILENAME), decoder);
+        CompletableFuture<List<VideoRecord>> videoRecords =
+                readRecordsAsync(fury, dataDir.resolve(BenchmarkConstants.VIDEO_FILENAME), decoder);
+        CompletableFuture<List<DanmuRecord>> danmuRecords =
+                readRecordsAsync(fury, dataDir.resolve(BenchmarkConstants.DANMU_FILENAME), decoder);
+        decoder.shutdown();
 
-        FileInputStream videoStream = new FileInputStream(
-                dataDir.resolve(BenchmarkConstants.VIDEO_FILENAME).toString());
-        byte[] videoBytes = videoStream.readAllBytes();
-        videoStream.close();
-        List<VideoRecord> videoRecords = (List<VideoRecord>) fury.deserialize(videoBytes);
+        val pipelined = Boolean.TRUE.equals(benchmarkConfig.getPipelinedImport());
+        if (!pipelined) {
+            CompletableFuture.allOf(userRecords, videoRecords, danmuRecords).join();
+        }
 
         val startedTime = System.nanoTime();
+        boolean imported = false;
         try {
-            databaseService.importData(danmuRecords, userRecords, videoRecords);
+            databaseService.importData(
+                    records(danmuRecords, pipelined),
+                    records(userRecords, pipelined),
+                    records(videoRecords, pipelined)
+            );
+            imported = true;
         } catch (Exception e) {
             log.error("Exception encountered during importing data, you may early stop this run", e);
         }
         val finishedTime = System.nanoTime();
 
+        // no metrics if the service under test does not go through the importer
+        importReports.ifAvailable(reports -> setImportResults(reports.getLastImportReport()));
+
+        if (imported && snapshotDir != null) {
+            try {
+                snapshots.save(snapshotDir);
+            } catch (RuntimeException e) {
+                log.warn("Failed to save the import snapshot, the next run will import again", e);
+            }
+        }
+
         return BenchmarkResult.builder()
                 .elapsedTime(finishedTime - startedTime)
                 .build();
     }
+
+    private BenchmarkResult restoreSnapshot(ImportSnapshotService snapshots, Path snapshotDir) {
+        log.info("Restoring import snapshot {} instead of importing", snapshotDir);
+        val startedTime = System.nanoTime();
+        try {
+            setImportResults(snapshots.restore(snapshotDir));
+        } catch (Exception e) {
+            log.error("Exception encountered during restoring the snapshot, you may early stop this run", e);
+        }
+        val finishedTime = System.nanoTime();
+        return BenchmarkResult.builder()
+                .elapsedTime(finishedTime - startedTime)
+                .build();
+    }
+
+    private void setImportResults(ImportReport report) {
+        if (report != null) {
+            importResults = report.getTables().stream()
+                    .map(ImportTableResult::of)
+                    .collect(Collectors.toList());
+            importQueueResults = report.getQueues().stream()
+                    .map(ImportQueueResult::of)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The snapshot directory of the record files in {@code dataDir}, identified by their names, sizes and
+     * modification times; {@code null} if snapshots are disabled in the config.
+     */
+    @SneakyThrows
+    private Path snapshotDir(ImportSnapshotService snapshots, Path dataDir) {
+        if (benchmarkConfig.getSnapshotPath() == null) {
+            return null;
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (val name : List.of(BenchmarkConstants.USER_FILENAME, BenchmarkConstants.VIDEO_FILENAME,
+                BenchmarkConstants.DANMU_FILENAME)) {
+            val file = dataDir.resolve(name);
+            digest.update((name + ':' + Files.size(file) + ':' + Files.getLastModifiedTime(file).toMillis() + ';')
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return Paths.get(benchmarkConfig.getSnapshotPath(), "v" + snapshots.getFormatVersion() + "-"
+                + HexFormat.of().formatHex(digest.digest(), 0, 8));
+    }
+
+    private static <T> List<T> records(CompletableFuture<List<T>> future, boolean pipelined) {
+        return pipelined ? new FutureList<>(future) : future.join();
+    }
+
+    private <T> CompletableFuture<List<T>> readRecordsAsync(ThreadSafeFury fury, Path path, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return readRecords(fury, path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private <T> List<T> readRecords(ThreadSafeFury fury, Path path) throws IOException {
+        if (Boolean.TRUE.equals(benchmarkConfig.getStreamingImport())) {
+            return RecordFiles.readChunked(fury, path, benchmarkConfig.getImportChunkSize());
+        }
+        return RecordFiles.readAll(fury, path);
+    }
 }
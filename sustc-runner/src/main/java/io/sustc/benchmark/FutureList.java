@@ -0,0 +1,44 @@
+package io.sustc.benchmark;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A list whose elements are still being produced, e.g. decoded on another thread.
+ * Every access blocks until the backing list is complete.
+ */
+final class FutureList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final CompletableFuture<List<T>> future;
+
+    FutureList(CompletableFuture<List<T>> future) {
+        this.future = future;
+    }
+
+    @Override
+    public T get(int index) {
+        return list().get(index);
+    }
+
+    @Override
+    public int size() {
+        return list().size();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return list().iterator();
+    }
+
+    @Override
+    public List<T> subList(int fromIndex, int toIndex) {
+        return list().subList(fromIndex, toIndex);
+    }
+
+    private List<T> list() {
+        return future.join();
+    }
+}
@@ -0,0 +1,39 @@
+package io.sustc.benchmark;
+
+import io.sustc.dto.ImportQueueReport;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * How one queue of the import pipeline filled up, written to a separate report next to the {@link ImportTableResult}s.
+ */
+@Data
+@Builder
+public class ImportQueueResult {
+
+    private String queue;
+
+    private Integer capacity;
+
+    private Long units;
+
+    private Double meanDepth;
+
+    private Long maxDepth;
+
+    private Long putStallTime;
+
+    private Long takeStallTime;
+
+    public static ImportQueueResult of(ImportQueueReport report) {
+        return ImportQueueResult.builder()
+                .queue(report.getQueue())
+                .capacity(report.getCapacity())
+                .units(report.getUnits())
+                .meanDepth(report.getMeanDepth())
+                .maxDepth(report.getMaxDepth())
+                .putStallTime(report.getPutStallNanos())
+                .takeStallTime(report.getTakeStallNanos())
+                .build();
+    }
+}
@@ -0,0 +1,69 @@
+package io.sustc.benchmark;
+
+import io.sustc.dto.ImportTableReport;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Throughput of one table during the import step, written to a separate report next to the {@link BenchmarkResult}s.
+ */
+@Data
+@Builder
+public class ImportTableResult {
+
+    private String table;
+
+    private String sink;
+
+    private Long rows;
+
+    private Long removedRows;
+
+    private Long bytes;
+
+    private Long elapsedTime;
+
+    private Long rowsPerSecond;
+
+    private Long flushCnt;
+
+    private Long flushP50Micros;
+
+    private Long flushP99Micros;
+
+    private Long flushMaxMicros;
+
+    private Long connectionWaitTime;
+
+    private Long allocatedBytesPerRow;
+
+    private Integer batchSize;
+
+    private Long spilledBytes;
+
+    private Long maintenanceTime;
+
+    private Long readyTime;
+
+    public static ImportTableResult of(ImportTableReport report) {
+        return ImportTableResult.builder()
+                .table(report.getTable())
+                .sink(report.getSink())
+                .rows(report.getRows())
+                .removedRows(report.getRemovedRows())
+                .bytes(report.getBytes())
+                .elapsedTime(report.getElapsedNanos())
+                .rowsPerSecond(Math.round(report.getRowsPerSecond()))
+                .flushCnt(report.getFlushCount())
+                .flushP50Micros(report.getFlushP50Nanos() / 1000)
+                .flushP99Micros(report.getFlushP99Nanos() / 1000)
+                .flushMaxMicros(report.getFlushMaxNanos() / 1000)
+                .connectionWaitTime(report.getConnectionWaitNanos())
+                .allocatedBytesPerRow(Math.round(report.getAllocatedBytesPerRow()))
+                .batchSize(report.getBatchSize() > 0 ? report.getBatchSize() : null)
+                .spilledBytes(report.getSpilledBytes())
+                .maintenanceTime(report.getMaintenanceNanos())
+                .readyTime(report.getReadyNanos())
+                .build();
+    }
+}
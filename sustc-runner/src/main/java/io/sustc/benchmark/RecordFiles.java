@@ -0,0 +1,193 @@
+package io.sustc.benchmark;
+
+import io.fury.ThreadSafeFury;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reads the Fury-serialized record lists of the import data.
+ * <p>
+ * A {@code .ser} file holds a single serialized {@link List} that Fury can only decode as a whole.
+ * {@link #readChunked} therefore converts it once into a sibling {@code .chunks} file holding the same records as
+ * independently serialized chunks, and from then on memory-maps that file and returns a list decoding each chunk
+ * the first time one of its records is accessed. Decoded chunks are only softly referenced, so the heap holds
+ * as many of them as it can afford rather than the whole data set.
+ * <p>
+ * The conversion itself still decodes the whole {@code .ser} file, so the first run with a new data set or chunk
+ * size needs as much heap as reading it with {@link #readAll}. Only the runs after it are bounded.
+ */
+@NoArgsConstructor(access = lombok.AccessLevel.PRIVATE)
+@Slf4j
+public final class RecordFiles {
+
+    /**
+     * {@code "SUSTCCK1"}, the first bytes of a chunk file.
+     */
+    private static final long MAGIC = 0x5355535443434b31L;
+
+    /**
+     * Magic, source size, source modification time, record count and chunk size, followed by the chunk offsets.
+     */
+    private static final int HEADER_SIZE = 8 + 8 + 8 + 4 + 4;
+
+    /**
+     * Maps {@code path} and decodes the whole list at once.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> readAll(ThreadSafeFury fury, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return (List<T>) fury.deserialize(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns a list over the records of {@code path} decoding them {@code chunkSize} at a time on demand,
+     * converting {@code path} into a chunk file first unless an up-to-date one exists.
+     *
+     * @throws IllegalArgumentException if {@code chunkSize} is not positive
+     */
+    public static <T> List<T> readChunked(ThreadSafeFury fury, Path path, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize
+                    + " (benchmark.import-chunk-size)");
+        }
+        Path chunkFile = path.resolveSibling(path.getFileName() + ".chunks");
+        if (!isUpToDate(chunkFile, path, chunkSize)) {
+            long start = System.nanoTime();
+            convert(fury, path, chunkFile, chunkSize);
+            log.info("Converted {} into chunks of {} records in {} ms", path.getFileName(), chunkSize,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        return new ChunkedList<>(fury, chunkFile);
+    }
+
+    private static boolean isUpToDate(Path chunkFile, Path source, int chunkSize) throws IOException {
+        if (!Files.exists(chunkFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            return header.getLong() == MAGIC
+                    && header.getLong() == Files.size(source)
+                    && header.getLong() == Files.getLastModifiedTime(source).toMillis()
+                    && header.getInt(HEADER_SIZE - 4) == chunkSize;
+        }
+    }
+
+    /**
+     * Writes the records of {@code source} into {@code target} chunk by chunk. The source list has to be decoded as
+     * a whole first, as Fury cannot read its elements one at a time.
+     */
+    private static void convert(ThreadSafeFury fury, Path source, Path target, int chunkSize) throws IOException {
+        List<?> records = readAll(fury, source);
+        int chunks = (records.size() + chunkSize - 1) / chunkSize;
+        long[] offsets = new long[chunks + 1];
+        int headerSize = HEADER_SIZE + 8 * offsets.length;
+
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(headerSize);
+            offsets[0] = headerSize;
+            for (int i = 0; i < chunks; i++) {
+                List<?> chunk = new ArrayList<>(
+                        records.subList(i * chunkSize, Math.min(records.size(), (i + 1) * chunkSize)));
+                writeFully(channel, ByteBuffer.wrap(fury.serialize(chunk)));
+                offsets[i + 1] = channel.position();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize)
+                    .putLong(MAGIC)
+                    .putLong(Files.size(source))
+                    .putLong(Files.getLastModifiedTime(source).toMillis())
+                    .putInt(records.size())
+                    .putInt(chunkSize);
+            for (long offset : offsets) {
+                header.putLong(offset);
+            }
+            channel.position(0);
+            writeFully(channel, header.flip());
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static final class ChunkedList<T> extends AbstractList<T> implements RandomAccess {
+
+        private final ThreadSafeFury fury;
+
+        private final int size;
+
+        private final int chunkSize;
+
+        /**
+         * The mapped bytes of every chunk. Mappings stay valid after their channel is closed.
+         */
+        private final ByteBuffer[] buffers;
+
+        private final AtomicReferenceArray<SoftReference<List<T>>> chunks;
+
+        ChunkedList(ThreadSafeFury fury, Path chunkFile) throws IOException {
+            this.fury = fury;
+            try (FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                this.size = header.getInt(HEADER_SIZE - 8);
+                this.chunkSize = header.getInt(HEADER_SIZE - 4);
+                int count = (size + chunkSize - 1) / chunkSize;
+                ByteBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 8L * (count + 1));
+                this.buffers = new ByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    long from = offsets.getLong(8 * i);
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, offsets.getLong(8 * (i + 1)) - from);
+                }
+            }
+            this.chunks = new AtomicReferenceArray<>(buffers.length);
+        }
+
+        @Override
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            return chunk(index / chunkSize).get(index % chunkSize);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<T> chunk(int i) {
+            SoftReference<List<T>> ref = chunks.get(i);
+            List<T> chunk = ref == null ? null : ref.get();
+            if (chunk == null) {
+                // two threads may decode the same chunk at once, which only costs time
+                chunk = (List<T>) fury.deserialize(buffers[i].duplicate());
+                chunks.set(i, new SoftReference<>(chunk));
+            }
+            return chunk;
+        }
+    }
+}